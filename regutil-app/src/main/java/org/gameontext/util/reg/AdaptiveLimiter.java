@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many requests are in flight at once, AIMD style. Each request
+ * that isn't pushed back on raises the limit by 1/limit, so roughly one more
+ * request per round trip, up to the configured concurrency. A 429 or 503
+ * halves it. Requests that were already in flight when the limit was cut are
+ * reacting to the same overload, so their rejections don't cut it again.
+ */
+class AdaptiveLimiter {
+
+    private static final double MIN_LIMIT = 1;
+    private static final double DECREASE = 0.5;
+
+    private final double maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecrease = Long.MIN_VALUE;
+    private long decreases = 0;
+    private double lowest;
+
+    AdaptiveLimiter(int maxConcurrency) {
+        if(maxConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.maxLimit = maxConcurrency;
+        this.limit = maxConcurrency;
+        this.lowest = maxConcurrency;
+    }
+
+    /**
+     * Waits for room under the current limit.
+     * @return a ticket to hand back to {@link #release(long, boolean)}
+     */
+    long acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while(inFlight >= (int) limit) {
+                available.await();
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param ticket from {@link #acquire()}
+     * @param overloaded whether the service pushed back on the request
+     */
+    void release(long ticket, boolean overloaded) {
+        lock.lock();
+        try {
+            inFlight--;
+            if(overloaded) {
+                if(ticket > lastDecrease) {
+                    limit = Math.max(MIN_LIMIT, limit * DECREASE);
+                    lowest = Math.min(lowest, limit);
+                    lastDecrease = System.nanoTime();
+                    decreases++;
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands back a ticket for a request that failed without telling us
+     * anything about the service's load.
+     */
+    void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDecreases() {
+        lock.lock();
+        try {
+            return decreases;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String describe() {
+        lock.lock();
+        try {
+            return String.format(Locale.ROOT, "%.1f of %.0f, lowest %.1f, backed off %d times", limit, maxLimit, lowest, decreases);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
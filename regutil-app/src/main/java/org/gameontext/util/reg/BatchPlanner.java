@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gameontext.util.reg.BulkRegistration.Entry;
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Collapses a batch into the fewest requests that leave the map service in
+ * the same state, before anything is sent.
+ *
+ * Entries are grouped by room, keeping their order within each room.
+ * <ul>
+ * <li>a PUT straight after another PUT or a POST for the same room replaces
+ * its body, as only the last one would stick,</li>
+ * <li>a DELETE drops the PUTs just before it, and a room that is POSTed and
+ * then deleted in the same batch is never sent at all,</li>
+ * <li>a PUT with the same body as the last write to the room, and a POST with
+ * the same body as an earlier POST, are dropped,</li>
+ * <li>repeated GETs and DELETEs are sent once.</li>
+ * </ul>
+ * A GET in between is seen through, it doesn't stop later writes being merged
+ * into earlier ones, but is kept in place itself.
+ *
+ * Each room's requests become a chain that is sent in order, while chains for
+ * different rooms are sent in parallel. A POST can give a local key in place
+ * of the room ID, which later entries use to refer to the room it creates.
+ */
+class BatchPlanner {
+
+    /**
+     * The requests to send, and what was merged to get there.
+     */
+    static class Plan {
+        final int entries;
+        final List<List<Entry>> chains;
+        final List<String> merged;
+
+        Plan(int entries, List<List<Entry>> chains, List<String> merged) {
+            this.entries = entries;
+            this.chains = chains;
+            this.merged = merged;
+        }
+
+        int size() {
+            int size = 0;
+            for(List<Entry> chain : chains) {
+                size += chain.size();
+            }
+            return size;
+        }
+
+        /**
+         * Prints how the batch was reduced, and with details for a dry run,
+         * every merge and the requests that would be sent.
+         */
+        void report(PrintStream out, boolean details) {
+            if(details) {
+                for(String merge : merged) {
+                    out.println("Merged : " + merge);
+                }
+                out.println();
+                int i = 0;
+                for(List<Entry> chain : chains) {
+                    String prefix = "";
+                    for(Entry entry : chain) {
+                        out.println(String.format("%-4d %s%s", ++i, prefix, entry));
+                        prefix = "  then ";
+                    }
+                }
+                out.println();
+            }
+            int size = size();
+            out.println("Planned " + size + " requests for " + entries + " entries, "
+                            + (entries - size) + " fewer, in " + chains.size() + " chains\n");
+        }
+    }
+
+    private final Map<String, String> hashes = new HashMap<>();
+
+    BatchPlanner() {
+    }
+
+    /**
+     * @param hashes the canonical hashes of files that have already been read, by path
+     */
+    BatchPlanner(Map<String, String> hashes) {
+        this.hashes.putAll(hashes);
+    }
+
+    /**
+     * @throws IOException if a registration file can't be read
+     */
+    Plan plan(List<Entry> entries) throws IOException {
+        List<String> merged = new ArrayList<>();
+        //a chain per room, in the order each room first appears
+        Map<String, List<Entry>> byRoom = new LinkedHashMap<>();
+        Map<String, Entry> postsByHash = new HashMap<>();
+        int anonymous = 0;
+        for(Entry entry : entries) {
+            if(entry.method == HTTP_METHOD.POST && entry.roomid == null) {
+                Entry same = postsByHash.putIfAbsent(hash(entry.path), entry);
+                if(same != null) {
+                    merged.add(entry + " has the same body as " + same + ", dropped");
+                } else {
+                    List<Entry> chain = new ArrayList<>();
+                    chain.add(entry);
+                    byRoom.put("\0" + anonymous++, chain);
+                }
+                continue;
+            }
+            add(byRoom.computeIfAbsent(entry.roomid, key -> new ArrayList<>()), entry, merged);
+        }
+
+        List<List<Entry>> chains = new ArrayList<>();
+        for(List<Entry> chain : byRoom.values()) {
+            if(!chain.isEmpty()) {
+                chains.add(chain);
+            }
+        }
+        return new Plan(entries.size(), chains, merged);
+    }
+
+    private void add(List<Entry> chain, Entry entry, List<String> merged) throws IOException {
+        int lastWrite = lastIndexOf(chain, HTTP_METHOD.POST, HTTP_METHOD.PUT, HTTP_METHOD.DELETE);
+        Entry write = (lastWrite >= 0) ? chain.get(lastWrite) : null;
+        Entry last = chain.isEmpty() ? null : chain.get(chain.size() - 1);
+
+        switch(entry.method) {
+        case PUT:
+            if(write != null && write.method != HTTP_METHOD.DELETE && hash(write.path).equals(hash(entry.path))) {
+                merged.add(entry + " has the same body as " + write + ", dropped");
+            } else if(write != null && write.method == HTTP_METHOD.PUT) {
+                chain.set(lastWrite, entry);
+                merged.add(write + " replaced by " + entry);
+            } else if(write != null && write.method == HTTP_METHOD.POST) {
+                Entry post = new Entry(HTTP_METHOD.POST, write.roomid, entry.path);
+                chain.set(lastWrite, post);
+                merged.add(entry + " folded into " + write);
+            } else {
+                chain.add(entry);
+            }
+            break;
+        case DELETE:
+            if(write != null && write.method == HTTP_METHOD.PUT) {
+                chain.remove(lastWrite);
+                merged.add(write + " dropped, the room is deleted by " + entry);
+                add(chain, entry, merged);
+            } else if(write != null && write.method == HTTP_METHOD.POST) {
+                //nothing outside this batch can know about the room, so it need never exist
+                int gets = chain.size() - lastWrite - 1;
+                removeFrom(chain, lastWrite);
+                merged.add(write + " and " + entry + " cancel out" + ((gets > 0) ? ", along with " + gets + " GET" + ((gets > 1) ? "s" : "") : ""));
+            } else if(write != null && write.method == HTTP_METHOD.DELETE) {
+                merged.add(entry + " repeats " + write + ", dropped");
+            } else {
+                chain.add(entry);
+            }
+            break;
+        case GET:
+            if(last != null && last.method == HTTP_METHOD.GET) {
+                merged.add(entry + " repeats " + last + ", dropped");
+            } else {
+                chain.add(entry);
+            }
+            break;
+        default:
+            //a POST with a local key starts the room's life, whatever came before
+            chain.add(entry);
+            break;
+        }
+    }
+
+    /**
+     * Removes a POST and the GETs of the room it created.
+     */
+    private static void removeFrom(List<Entry> chain, int index) {
+        while(chain.size() > index) {
+            chain.remove(chain.size() - 1);
+        }
+    }
+
+    private static int lastIndexOf(List<Entry> chain, HTTP_METHOD... methods) {
+        for(int i = chain.size() - 1; i >= 0; i--) {
+            for(HTTP_METHOD method : methods) {
+                if(chain.get(i).method == method) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Bodies are compared by their canonical JSON, so files that only differ
+     * in formatting are the same body.
+     */
+    private String hash(String path) throws IOException {
+        String hash = hashes.get(path);
+        if(hash == null) {
+            ByteBuffer body = BodyReader.read(path, true);
+            try {
+                hash = DifferentialSync.canonicalHash(body);
+            } catch (IllegalArgumentException e) {
+                //not JSON, so only the same bytes are the same body
+                hash = RequestSigner.hash(body);
+            }
+            hashes.put(path, hash);
+        }
+        return hash;
+    }
+}
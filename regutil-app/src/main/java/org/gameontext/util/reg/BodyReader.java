@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads registration bodies as bytes, without decoding them into a String.
+ * Large files are memory mapped rather than copied onto the heap.
+ *
+ * By default line endings are rewritten to the platform line separator and
+ * any final line ending is dropped, as {@link RegistrationUtility#readFile(String)}
+ * always has done. In raw mode the bytes are sent exactly as stored.
+ */
+final class BodyReader {
+
+    /** Files at least this big are memory mapped */
+    static final int MAP_THRESHOLD = 1024 * 1024;
+
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8);
+
+    private BodyReader() {
+    }
+
+    /**
+     * Finds a registration file, either on the file system or as a resource.
+     */
+    static File resolve(String path) {
+        File file = new File(path);
+        if(!file.exists() || !file.isFile())  {
+            //perhaps its a resource
+            URL resource = ClassLoader.getSystemResource(path);
+            if(resource != null) {
+                file = new File(resource.getFile());
+            }
+        }
+
+        if(!file.exists() || !file.isFile())  {
+            throw new IllegalArgumentException("Invalid path for registration JSON file specified : " + path);
+        }
+        return file;
+    }
+
+    /**
+     * Reads a registration file into a buffer positioned at the start of the body.
+     */
+    static ByteBuffer read(String path, boolean raw) throws IOException {
+        File file = resolve(path);
+        ByteBuffer contents;
+        if(file.length() >= MAP_THRESHOLD) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } else {
+            contents = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        }
+        return raw ? contents : normaliseLineEndings(contents);
+    }
+
+    /**
+     * Rewrites \r\n, \r and \n to the line separator, dropping any trailing
+     * line ending. The buffer is returned untouched if nothing needs changing.
+     */
+    static ByteBuffer normaliseLineEndings(ByteBuffer in) {
+        int start = in.position();
+        int end = in.limit();
+        boolean separatorIsLf = (LINE_SEPARATOR.length == 1) && (LINE_SEPARATOR[0] == '\n');
+        int endings = 0;
+        boolean rewrite = false;
+        for(int i = start; i < end; i++) {
+            byte b = in.get(i);
+            if(b == '\r' || b == '\n') {
+                endings++;
+                rewrite |= (b == '\r') || !separatorIsLf || (i == end - 1);
+            }
+        }
+        if(!rewrite) {
+            return in;
+        }
+
+        byte[] out = new byte[(end - start) + endings * LINE_SEPARATOR.length];
+        int length = 0;
+        int pending = 0;    //line endings are only written once we know more content follows
+        for(int i = start; i < end; i++) {
+            byte b = in.get(i);
+            if(b == '\r' || b == '\n') {
+                if(b == '\r' && i + 1 < end && in.get(i + 1) == '\n') {
+                    i++;
+                }
+                pending++;
+                continue;
+            }
+            for(; pending > 0; pending--) {
+                System.arraycopy(LINE_SEPARATOR, 0, out, length, LINE_SEPARATOR.length);
+                length += LINE_SEPARATOR.length;
+            }
+            out[length++] = b;
+        }
+        //as with Files.readAllLines, a blank last line still counts, just not the final line ending
+        for(; pending > 1; pending--) {
+            System.arraycopy(LINE_SEPARATOR, 0, out, length, LINE_SEPARATOR.length);
+            length += LINE_SEPARATOR.length;
+        }
+        return ByteBuffer.wrap(out, 0, length);
+    }
+
+    /**
+     * Compresses the body from its position to its limit. The same body
+     * always compresses to the same bytes, as the gzip header has no time
+     * set, so a signature over the compressed body stays valid.
+     */
+    static ByteBuffer gzip(ByteBuffer body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, body.remaining() / 4));
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+            write(body, out);
+        }
+        return ByteBuffer.wrap(compressed.toByteArray());
+    }
+
+    /**
+     * Writes the body from its position to its limit, without changing either.
+     */
+    static void write(ByteBuffer body, OutputStream os) throws IOException {
+        if(body.hasArray() && body.arrayOffset() == 0 && body.position() == 0 && body.limit() == body.array().length) {
+            os.write(body.array());
+        } else if(body.hasArray()) {
+            os.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        } else {
+            WritableByteChannel channel = Channels.newChannel(os);
+            ByteBuffer remaining = body.duplicate();
+            while(remaining.hasRemaining()) {
+                channel.write(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Runs a batch of registrations through a bounded pool of workers, so that
+ * many rooms can be registered or updated from a single JVM.
+ *
+ * The batch is either a directory of registration JSON files, or a manifest
+ * file with one entry per line of the form
+ * <pre>
+ * &lt;HTTP method&gt; [room ID] [path to registration json file]
+ * </pre>
+ * Blank lines and lines starting with # are ignored. Relative paths are
+ * resolved against the directory containing the manifest. A POST may give
+ * a key in place of the room ID, which later lines can use as the room ID of
+ * the room it registers, see {@link BatchPlanner}.
+ */
+class BulkRegistration {
+
+    static final int DEFAULT_CONCURRENCY = 8;
+
+    private final RegistrationUtility template;
+    private final int concurrency;
+    //the valid registration files as checked, sent rather than reading the files again
+    private final Map<String, RoomValidator.Result> bodies;
+    private Journal journal;
+    private Map<Entry, String> keys = Collections.emptyMap();
+
+    BulkRegistration(RegistrationUtility template, int concurrency) {
+        this.template = template;
+        this.concurrency = concurrency;
+        this.bodies = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * A batch that sends the files already checked by another, e.g. to
+     * another map service.
+     */
+    BulkRegistration(RegistrationUtility template, int concurrency, BulkRegistration checked) {
+        this.template = template;
+        this.concurrency = concurrency;
+        this.bodies = checked.bodies;
+    }
+
+    /**
+     * Records the progress of the batch in a journal, and skips whatever an
+     * earlier run it records has already done.
+     */
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * A single registration within a batch.
+     */
+    static class Entry {
+        final HTTP_METHOD method;
+        final String roomid;
+        final String path;
+
+        Entry(HTTP_METHOD method, String roomid, String path) {
+            this.method = method;
+            this.roomid = roomid;
+            this.path = path;
+        }
+
+        @Override
+        public String toString() {
+            return method + (roomid != null ? " " + roomid : "") + (path != null ? " " + path : "");
+        }
+    }
+
+    /**
+     * The outcome of a single entry.
+     */
+    static class Result {
+        final Entry entry;
+        final int code;
+        final long millis;
+        final String log;
+        final String response;
+        final String error;
+
+        Result(Entry entry, int code, long millis, String log, String response, String error) {
+            this.entry = entry;
+            this.code = code;
+            this.millis = millis;
+            this.log = log;
+            this.response = response;
+            this.error = error;
+        }
+
+        int exitCode() {
+            return (error != null) ? 1 : RegistrationUtility.exitCode(code);
+        }
+    }
+
+    /**
+     * Loads the entries for a batch. Every file in a directory is sent with the
+     * supplied method, using the file name (without .json) as the room id for
+     * anything other than a POST.
+     */
+    static List<Entry> load(String path, HTTP_METHOD method) throws IOException {
+        File source = new File(path);
+        List<Entry> entries = new ArrayList<>();
+        if(source.isDirectory()) {
+            File[] files = source.listFiles((File dir, String name) -> name.endsWith(".json"));
+            Arrays.sort(files);
+            for(File file : files) {
+                String name = file.getName();
+                String roomid = (method == HTTP_METHOD.POST) ? null : name.substring(0, name.length() - ".json".length());
+                entries.add(new Entry(method, roomid, file.getPath()));
+            }
+        } else if(source.isFile()) {
+            int lineNo = 0;
+            for(String line : Files.readAllLines(source.toPath())) {
+                lineNo++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                entries.add(parseEntry(line, lineNo, source.getAbsoluteFile().getParentFile()));
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid path for bulk registration directory or manifest specified : " + path);
+        }
+        return entries;
+    }
+
+    private static Entry parseEntry(String line, int lineNo, File base) {
+        String[] fields = line.split("\\s+");
+        HTTP_METHOD method;
+        try {
+            method = HTTP_METHOD.valueOf(fields[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown HTTP method on manifest line " + lineNo + " : " + fields[0]);
+        }
+        boolean needsBody = (method == HTTP_METHOD.POST) || (method == HTTP_METHOD.PUT);
+        int expected = 1 + (method == HTTP_METHOD.POST ? 0 : 1) + (needsBody ? 1 : 0);
+        //the key for a POST is optional
+        boolean keyed = (method == HTTP_METHOD.POST) && fields.length == expected + 1;
+        if(fields.length != expected && !keyed) {
+            throw new IllegalArgumentException("Manifest line " + lineNo + " should be '" + usage(method) + "' : " + line);
+        }
+        String roomid = (method == HTTP_METHOD.POST && !keyed) ? null : fields[1];
+        String path = null;
+        if(needsBody) {
+            File file = new File(fields[fields.length - 1]);
+            path = file.isAbsolute() ? file.getPath() : new File(base, file.getPath()).getPath();
+        }
+        return new Entry(method, roomid, path);
+    }
+
+    private static String usage(HTTP_METHOD method) {
+        switch(method) {
+        case POST:
+            return "POST [key] <path>";
+        case PUT:
+            return "PUT <room ID> <path>";
+        default:
+            return method + " <room ID>";
+        }
+    }
+
+    /**
+     * Checks the files of a batch in parallel before anything is sent, and
+     * prints what is wrong with any that are invalid.
+     * @return the canonical hash of each file, or null if any file is invalid
+     */
+    Map<String, String> validate(List<Entry> entries) {
+        List<String> paths = entries.stream().filter((Entry entry) -> entry.path != null)
+                                             .map((Entry entry) -> entry.path)
+                                             .collect(Collectors.toList());
+        List<RoomValidator.Result> results = check(paths);
+        int invalid = RoomValidator.report(template.getOutput(), results);
+        if(invalid > 0) {
+            template.getOutput().println(invalid + " of " + results.size() + " registration files are invalid, nothing was sent");
+            return null;
+        }
+        Map<String, String> hashes = new HashMap<>();
+        for(RoomValidator.Result result : results) {
+            hashes.put(result.path, result.hash);
+        }
+        return hashes;
+    }
+
+    /**
+     * Checks registration files in parallel, keeping the bodies of the valid
+     * ones to send.
+     */
+    List<RoomValidator.Result> check(Collection<String> paths) {
+        List<RoomValidator.Result> results = RoomValidator.validateAll(paths, template.isRawBody());
+        for(RoomValidator.Result result : results) {
+            if(result.isValid()) {
+                bodies.put(result.path, result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sends every entry and reports the results.
+     */
+    int run(List<Entry> entries) throws Exception {
+        return report(sendAll(entries));
+    }
+
+    /**
+     * Sends a plan and reports the results.
+     */
+    int run(BatchPlanner.Plan plan) throws Exception {
+        return report(sendAll(plan));
+    }
+
+    /**
+     * Sends each chain of a plan in order, with different chains in parallel.
+     * Once a POST with a key has registered its room, the rest of its chain
+     * uses the room's ID in place of the key. If an entry fails, the rest of
+     * its chain is skipped.
+     *
+     * With a journal, entries that an earlier run completed aren't sent again.
+     * A POST that an earlier run sent but never heard back from isn't either,
+     * as the room may well have been registered, and fails along with the rest
+     * of its chain.
+     * @return the results in the same order as the entries of the plan
+     */
+    List<Result> sendAll(BatchPlanner.Plan plan) throws Exception {
+        template.getOutput().println("Registering " + plan.size() + " entries in " + plan.chains.size()
+                                     + " chains with " + concurrency + " workers\n");
+        if(journal != null) {
+            keys = Journal.keys(plan.chains);
+            long done = keys.values().stream().map(journal::previous)
+                                              .filter((Journal.Record record) -> record != null && record.isSuccessful())
+                                              .count();
+            if(done > 0) {
+                template.getOutput().println("Resuming, " + done + " of " + plan.size() + " entries were done by an earlier run\n");
+            }
+        }
+
+        ExecutorService pool = Workers.newBoundedPool(concurrency, "regutil-bulk");
+        List<Result> results = new ArrayList<>();
+        try {
+            List<Future<List<Result>>> pending = new ArrayList<>();
+            for(List<Entry> chain : plan.chains) {
+                pending.add(pool.submit(() -> sendChain(chain)));
+            }
+            for(Future<List<Result>> chain : pending) {
+                results.addAll(chain.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    private List<Result> sendChain(List<Entry> chain) {
+        Chain sender = new Chain(chain);
+        while(!sender.isDone()) {
+            sender.sendNext();
+        }
+        return sender.getResults();
+    }
+
+    /**
+     * @return a chain of a plan, to be sent an entry at a time
+     */
+    Chain chain(List<Entry> entries) {
+        return new Chain(entries);
+    }
+
+    /**
+     * Sends the entries of a chain one at a time, so that something else can
+     * decide when each one goes, see {@link FairScheduler}. Once an entry
+     * fails, the rest of the chain is skipped straight away.
+     */
+    class Chain {
+        private final List<Entry> entries;
+        private final List<Result> results = new ArrayList<>();
+        private String key = null;
+        private String roomid = null;
+
+        Chain(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        boolean isDone() {
+            return results.size() == entries.size();
+        }
+
+        /**
+         * @return the results so far, in the same order as the entries
+         */
+        List<Result> getResults() {
+            return results;
+        }
+
+        void sendNext() {
+            Entry planned = entries.get(results.size());
+            Entry entry = resolve(planned);
+            String name = keys.get(planned);
+            Journal.Record earlier = (journal != null) ? journal.previous(name) : null;
+            Result result;
+            String registered;
+            if(earlier != null && earlier.isSuccessful()) {
+                result = new Result(entry, earlier.code, 0, "Done by an earlier run\n", null, null);
+                registered = earlier.roomid;
+            } else if(earlier != null && !earlier.done && entry.method == HTTP_METHOD.POST) {
+                result = new Result(entry, -1, 0, "", null, "Sent by an earlier run that stopped before it heard back, not sent again "
+                                                            + "in case the room was registered. Check the map service for it.");
+                registered = null;
+            } else {
+                result = sendJournaled(entry, name);
+                registered = registeredId(result.response);
+            }
+            if(result.exitCode() == 0 && entry.method == HTTP_METHOD.POST && entry.roomid != null) {
+                key = entry.roomid;
+                roomid = registered;
+                if(roomid == null) {
+                    result = new Result(entry, result.code, result.millis, result.log, result.response,
+                                        "No _id in the response, needed by the rest of the entries for " + key);
+                }
+            }
+            results.add(result);
+            if(result.exitCode() != 0) {
+                while(!isDone()) {
+                    results.add(new Result(resolve(entries.get(results.size())), -1, 0, "", null, "Skipped, as " + entry + " failed"));
+                }
+            }
+        }
+
+        private Entry resolve(Entry entry) {
+            if(entry.method != HTTP_METHOD.POST && key != null && key.equals(entry.roomid)) {
+                return new Entry(entry.method, roomid, entry.path);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Sends an entry, recording it in the journal if there is one. A POST that
+     * got no response is left as sent, as it may or may not have been
+     * registered.
+     */
+    private Result sendJournaled(Entry entry, String name) {
+        if(journal == null) {
+            return send(entry);
+        }
+        try {
+            journal.sending(name);
+        } catch (IOException e) {
+            return new Result(entry, -1, 0, "", null, "Not sent, as the journal can't be written : " + e.getMessage());
+        }
+        Result result = send(entry);
+        if(result.error != null && entry.method == HTTP_METHOD.POST) {
+            return result;
+        }
+        try {
+            journal.done(name, result.code, (entry.method == HTTP_METHOD.POST) ? registeredId(result.response) : null);
+        } catch (IOException e) {
+            return new Result(entry, result.code, result.millis, result.log, result.response,
+                              "Sent, but the journal can't be written : " + e.getMessage());
+        }
+        return result;
+    }
+
+    private static String registeredId(String response) {
+        if(response == null) {
+            return null;
+        }
+        try {
+            Object site = Json.parse(response);
+            Object id = (site instanceof Map) ? ((Map<?, ?>) site).get("_id") : null;
+            return (id != null) ? String.valueOf(id) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends every entry, returning the results in the same order as the entries.
+     */
+    List<Result> sendAll(List<Entry> entries) throws Exception {
+        template.getOutput().println("Registering " + entries.size() + " entries with " + concurrency + " workers\n");
+
+        ExecutorService pool = Workers.newBoundedPool(concurrency, "regutil-bulk");
+        List<Result> results = new ArrayList<>();
+        try {
+            List<Future<Result>> pending = new ArrayList<>();
+            for(Entry entry : entries) {
+                pending.add(pool.submit(() -> send(entry)));
+            }
+            for(Future<Result> result : pending) {
+                results.add(result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Prints the results and returns the combined exit code, which is that of the
+     * first entry that failed, or 0 if they all succeeded.
+     */
+    int report(List<Result> results) {
+        PrintStream out = template.getOutput();
+
+        //only show the full conversation for the entries that went wrong
+        for(Result result : results) {
+            if(result.exitCode() != 0) {
+                out.println("---- " + result.entry);
+                out.print(result.log);
+                if(result.error != null) {
+                    out.println("Error : " + result.error);
+                }
+            }
+        }
+        printTable(out, results);
+
+        for(Result result : results) {
+            if(result.exitCode() != 0) {
+                return result.exitCode();
+            }
+        }
+        return 0;
+    }
+
+    private Result send(Entry entry) {
+        return send(entry, null);
+    }
+
+    /**
+     * Sends a single entry, with the body supplied rather than read from the
+     * entry's file when there is one. A file that has already been checked
+     * isn't read again.
+     */
+    Result send(Entry entry, ByteBuffer body) {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        int code = -1;
+        String response = null;
+        String error = null;
+        try (PrintStream out = new PrintStream(log, true)) {
+            //the room ID of a POST is only a key for the rest of the batch
+            RegistrationUtility item = template.forRequest(entry.method, (entry.method == HTTP_METHOD.POST) ? null : entry.roomid);
+            item.setOutput(out);
+            RoomValidator.Result checked = (entry.path != null) ? bodies.get(entry.path) : null;
+            if(body != null) {
+                item.setBodyBytes(body);
+            } else if(checked != null) {
+                item.setCheckedBody(checked);
+            } else if(entry.path != null) {
+                item.loadBody(entry.path);
+            }
+            code = item.execute();
+            response = item.getResponse();
+        } catch (Exception e) {
+            error = (e.getMessage() != null) ? e.getMessage() : e.toString();
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new Result(entry, code, millis, log.toString(), response, error);
+    }
+
+    private static void printTable(PrintStream out, List<Result> results) {
+        if(results.isEmpty()) {
+            return;
+        }
+        out.println();
+        out.println(String.format("%-4s %-7s %-24s %-6s %-5s %8s  %s", "#", "METHOD", "ROOM ID", "CODE", "EXIT", "TIME ms", "FILE"));
+        int i = 0;
+        for(Result result : results) {
+            Entry entry = result.entry;
+            out.println(String.format("%-4d %-7s %-24s %-6s %-5d %8d  %s",
+                                      ++i,
+                                      entry.method,
+                                      entry.roomid != null ? entry.roomid : "-",
+                                      result.code >= 0 ? String.valueOf(result.code) : "-",
+                                      result.exitCode(),
+                                      result.millis,
+                                      entry.path != null ? entry.path : "-"));
+        }
+        out.println();
+    }
+}
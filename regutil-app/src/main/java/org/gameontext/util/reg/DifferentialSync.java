@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Brings the map service in line with a directory of registration files,
+ * using a {@link SyncIndex} to only send what has changed since the last sync.
+ * New files are registered with a POST, changed files are updated with a PUT
+ * and rooms whose file has been removed are deleted. Files are compared by
+ * the hash of their canonical JSON, so formatting changes don't count.
+ */
+class DifferentialSync {
+
+    private final RegistrationUtility template;
+    private final BulkRegistration bulk;
+
+    DifferentialSync(RegistrationUtility template, int concurrency) {
+        this.template = template;
+        this.bulk = new BulkRegistration(template, concurrency);
+    }
+
+    /**
+     * Syncs every .json file in the directory.
+     * @param verify check each indexed room against the map service first
+     * @return the combined exit code, as for {@link BulkRegistration}
+     */
+    int run(File directory, Path indexPath, boolean verify) throws Exception {
+        if(!directory.isDirectory()) {
+            throw new IllegalArgumentException("Invalid path for sync directory specified : " + directory);
+        }
+        SyncIndex index = SyncIndex.load(indexPath);
+
+        if(verify) {
+            verify(index);
+        }
+        return sync(directory, index, null, true);
+    }
+
+    /**
+     * Syncs some or all of the .json files in the directory against an index
+     * that is already loaded, saving the index afterwards.
+     * @param names the files to look at, or null for every file in the directory and index
+     * @param deleteRemoved delete the rooms of files that have been removed, rather than
+     *                      leaving them registered
+     * @return the combined exit code, as for {@link BulkRegistration}
+     */
+    int sync(File directory, SyncIndex index, Set<String> names, boolean deleteRemoved) throws Exception {
+        PrintStream out = template.getOutput();
+
+        Map<String, String> hashes = new HashMap<>();
+        List<BulkRegistration.Result> failures = new ArrayList<>();
+        File[] files = directory.listFiles((File dir, String name) -> name.endsWith(".json")
+                                                                     && (names == null || names.contains(name)));
+        if(files == null) {
+            throw new IllegalArgumentException("Unable to list sync directory : " + directory);
+        }
+        Arrays.sort(files);
+        if(template.isValidating()) {
+            List<String> paths = new ArrayList<>();
+            for(File file : files) {
+                paths.add(file.getPath());
+            }
+            for(RoomValidator.Result result : bulk.check(paths)) {
+                if(result.isValid()) {
+                    hashes.put(new File(result.path).getName(), result.hash);
+                } else {
+                    BulkRegistration.Entry entry = new BulkRegistration.Entry(HTTP_METHOD.POST, null, result.path);
+                    failures.add(new BulkRegistration.Result(entry, -1, 0, "", null, result.describe()));
+                }
+            }
+        } else {
+            for(File file : files) {
+                try {
+                    hashes.put(file.getName(), canonicalHash(BodyReader.read(file.getPath(), true)));
+                } catch (IllegalArgumentException e) {
+                    BulkRegistration.Entry entry = new BulkRegistration.Entry(HTTP_METHOD.POST, null, file.getPath());
+                    failures.add(new BulkRegistration.Result(entry, -1, 0, "", null, "Invalid JSON : " + e.getMessage()));
+                } catch (IOException e) {
+                    BulkRegistration.Entry entry = new BulkRegistration.Entry(HTTP_METHOD.POST, null, file.getPath());
+                    failures.add(new BulkRegistration.Result(entry, -1, 0, "", null, "Unable to read " + file.getPath() + " : " + e));
+                }
+            }
+        }
+
+        //work out what needs sending, remembering which file each entry is for
+        List<BulkRegistration.Entry> entries = new ArrayList<>();
+        List<String> entryNames = new ArrayList<>();
+        int unchanged = 0;
+        for(File file : files) {
+            String name = file.getName();
+            String hash = hashes.get(name);
+            if(hash == null) {
+                continue;
+            }
+            SyncIndex.Entry known = index.get(name);
+            if(known == null || known.roomid == null) {
+                entries.add(new BulkRegistration.Entry(HTTP_METHOD.POST, null, file.getPath()));
+            } else if(!hash.equals(known.hash)) {
+                entries.add(new BulkRegistration.Entry(HTTP_METHOD.PUT, known.roomid, file.getPath()));
+            } else {
+                unchanged++;
+                continue;
+            }
+            entryNames.add(name);
+        }
+        int kept = 0;
+        for(SyncIndex.Entry known : new ArrayList<>(index.entries())) {
+            if((names == null || names.contains(known.file)) && !new File(directory, known.file).exists()) {
+                if(known.roomid == null) {
+                    index.remove(known.file);
+                } else if(deleteRemoved) {
+                    entries.add(new BulkRegistration.Entry(HTTP_METHOD.DELETE, known.roomid, null));
+                    entryNames.add(known.file);
+                } else {
+                    kept++;
+                }
+            }
+        }
+        out.println("Sync of " + directory + " : " + count(entries, HTTP_METHOD.POST) + " added, "
+                        + count(entries, HTTP_METHOD.PUT) + " changed, "
+                        + count(entries, HTTP_METHOD.DELETE) + " removed, "
+                        + unchanged + " unchanged"
+                        + ((kept > 0) ? ", " + kept + " removed but left registered" : "") + "\n");
+
+        List<BulkRegistration.Result> results = entries.isEmpty() ? new ArrayList<>() : bulk.sendAll(entries);
+        try {
+            for(int i = 0; i < results.size(); i++) {
+                update(index, entryNames.get(i), hashes.get(entryNames.get(i)), results.get(i));
+            }
+        } finally {
+            index.save();
+        }
+
+        failures.addAll(results);
+        return bulk.report(failures);
+    }
+
+    /**
+     * Records the outcome of a request. Failed requests leave the index as it
+     * was, other than the last response, so they are retried on the next sync.
+     */
+    private static void update(SyncIndex index, String name, String hash, BulkRegistration.Result result) {
+        SyncIndex.Entry entry = index.getOrCreate(name);
+        entry.code = result.code;
+        entry.response = parseResponse(result.response);
+        boolean ok = result.exitCode() == 0;
+        switch(result.entry.method) {
+        case POST:
+            if(ok && entry.response instanceof Map) {
+                Object id = ((Map<?, ?>) entry.response).get("_id");
+                entry.roomid = (id != null) ? String.valueOf(id) : null;
+                entry.hash = (id != null) ? hash : null;
+            }
+            break;
+        case PUT:
+            if(ok) {
+                entry.hash = hash;
+            }
+            break;
+        case DELETE:
+            if(ok || result.code == HttpURLConnection.HTTP_NOT_FOUND) {
+                index.remove(name);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Checks every indexed room against the map service. Rooms it no longer
+     * has will be registered again, and rooms whose registration differs from
+     * the index will be updated.
+     */
+    private void verify(SyncIndex index) throws Exception {
+        List<BulkRegistration.Entry> gets = new ArrayList<>();
+        List<SyncIndex.Entry> known = new ArrayList<>();
+        for(SyncIndex.Entry entry : index.entries()) {
+            if(entry.roomid != null) {
+                gets.add(new BulkRegistration.Entry(HTTP_METHOD.GET, entry.roomid, null));
+                known.add(entry);
+            }
+        }
+        if(gets.isEmpty()) {
+            return;
+        }
+        template.getOutput().println("Verifying " + gets.size() + " indexed rooms against the map service");
+        List<BulkRegistration.Result> results = bulk.sendAll(gets);
+        int drifted = 0;
+        for(int i = 0; i < results.size(); i++) {
+            BulkRegistration.Result result = results.get(i);
+            SyncIndex.Entry entry = known.get(i);
+            if(result.code == HttpURLConnection.HTTP_NOT_FOUND) {
+                entry.roomid = null;
+                entry.hash = null;
+                drifted++;
+            } else if(result.exitCode() == 0) {
+                Object site = parseResponse(result.response);
+                Object info = (site instanceof Map) ? ((Map<?, ?>) site).get("info") : null;
+                String hash = (info != null) ? canonicalHash(info) : null;
+                if(hash == null || !hash.equals(entry.hash)) {
+                    entry.hash = null;
+                    drifted++;
+                }
+            }
+        }
+        template.getOutput().println(drifted + " rooms differ from the index\n");
+    }
+
+    private static int count(List<BulkRegistration.Entry> entries, HTTP_METHOD method) {
+        int count = 0;
+        for(BulkRegistration.Entry entry : entries) {
+            if(entry.method == method) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static String canonicalHash(ByteBuffer body) {
+        return canonicalHash(Json.parse(StandardCharsets.UTF_8.decode(body.duplicate()).toString()));
+    }
+
+    private static String canonicalHash(Object json) {
+        return RequestSigner.hash(ByteBuffer.wrap(Json.canonical(json).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Object parseResponse(String response) {
+        if(response == null || response.isEmpty()) {
+            return null;
+        }
+        try {
+            return Json.parse(response);
+        } catch (IllegalArgumentException e) {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.gameontext.util.reg.BulkRegistration.Entry;
+
+/**
+ * Sends the batches of several teams, each with its own id and secret, to a
+ * map service through one shared pool of workers and connections. The teams
+ * are read from a file with one team per line of the form
+ * <pre>
+ * &lt;gameon id&gt; &lt;gameon secret&gt; &lt;requests/sec, or 0 for no limit&gt; &lt;directory or manifest&gt;
+ * </pre>
+ * Blank lines and lines starting with # are ignored. Relative paths are
+ * resolved against the directory containing the file.
+ *
+ * Each team's requests are limited to its rate by a token bucket, which
+ * allows bursts of up to a second's worth. Free workers take a request from
+ * each team that has one ready in turn, so a team with a large batch gets
+ * the same share of the workers as any other with requests waiting, rather
+ * than everything queued ahead of them. A team's entries for a room are still
+ * sent in order, see {@link BatchPlanner}. Each team also has its own limit
+ * on requests in flight, and a team at its limit is passed over rather than
+ * given a worker to wait in, so a team that is pushed back on doesn't slow
+ * the others.
+ */
+class FairScheduler {
+
+    private final RegistrationUtility template;
+    private final List<Team> teams;
+    private final int concurrency;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int next = 0;
+    private int remaining = 0;
+
+    FairScheduler(RegistrationUtility template, List<Team> teams, int concurrency) {
+        this.template = template;
+        this.teams = teams;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * A team's credentials and batch, and how it got on.
+     */
+    static class Team {
+        final String id;
+        final String secret;
+        final double rate;
+        final String path;
+
+        private final Deque<Waiting> ready = new ArrayDeque<>();
+        private final List<BulkRegistration.Chain> chains = new ArrayList<>();
+        private final Histogram queueWait = new Histogram();
+        private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        private TokenBucket bucket;
+        private AdaptiveLimiter limiter;
+        private BulkRegistration bulk;
+        private int remaining = 0;
+        private int sending = 0;
+        private long requests = 0;
+        private long started = -1;
+        private long finished = -1;
+        private int exitCode = 0;
+
+        Team(String id, String secret, double rate, String path) {
+            this.id = id;
+            this.secret = secret;
+            this.rate = rate;
+            this.path = path;
+        }
+
+        long getRequests() {
+            return requests;
+        }
+
+        /**
+         * How long each request waited to be sent, in microseconds, from when
+         * it could have been sent as far as its room was concerned.
+         */
+        Histogram getQueueWait() {
+            return queueWait;
+        }
+
+        /**
+         * @return requests per second, from the first being sent to the last finishing
+         */
+        double getThroughput() {
+            double seconds = (finished - started) / 1e9;
+            return (requests == 0 || seconds <= 0) ? 0 : requests / seconds;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    /**
+     * A chain whose next entry is ready to be sent, and since when.
+     */
+    private static class Waiting {
+        final Team team;
+        final BulkRegistration.Chain chain;
+        final long since;
+
+        Waiting(Team team, BulkRegistration.Chain chain, long since) {
+            this.team = team;
+            this.chain = chain;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Lets requests through at a steady rate, with bursts of up to a second's
+     * worth. It starts full.
+     */
+    static final class TokenBucket {
+        private final double perNano;
+        private final double capacity;
+        private final LongSupplier clock;
+        private double tokens;
+        private long refilled;
+
+        TokenBucket(double perSecond, LongSupplier clock) {
+            if(perSecond <= 0) {
+                throw new IllegalArgumentException("The rate must be more than 0 requests/sec");
+            }
+            this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, perSecond);
+            this.clock = clock;
+            this.tokens = capacity;
+            this.refilled = clock.getAsLong();
+        }
+
+        /**
+         * Takes a token if there is one.
+         * @return 0 if a token was taken, otherwise the nanoseconds until there will be one
+         */
+        synchronized long take() {
+            long now = clock.getAsLong();
+            tokens = Math.min(capacity, tokens + (now - refilled) * perNano);
+            refilled = now;
+            if(tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / perNano));
+        }
+    }
+
+    static List<Team> load(String path) throws IOException {
+        File file = new File(path);
+        if(!file.isFile()) {
+            throw new IllegalArgumentException("Invalid path for teams file specified : " + path);
+        }
+        File base = file.getAbsoluteFile().getParentFile();
+        Set<String> ids = new HashSet<>();
+        List<Team> teams = new ArrayList<>();
+        int lineNo = 0;
+        for(String line : Files.readAllLines(file.toPath())) {
+            lineNo++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            double rate;
+            try {
+                rate = (fields.length == 4) ? Double.parseDouble(fields[2]) : -1;
+            } catch (NumberFormatException e) {
+                rate = -1;
+            }
+            if(rate < 0) {
+                throw new IllegalArgumentException("Teams line " + lineNo + " should be '<gameon id> <gameon secret> <requests/sec> <directory or manifest>'");
+            }
+            if(!ids.add(fields[0])) {
+                throw new IllegalArgumentException("Teams line " + lineNo + " repeats the id " + fields[0]);
+            }
+            File batch = new File(fields[3]);
+            teams.add(new Team(fields[0], fields[1], rate, batch.isAbsolute() ? batch.getPath() : new File(base, batch.getPath()).getPath()));
+        }
+        if(teams.isEmpty()) {
+            throw new IllegalArgumentException("No teams in " + path);
+        }
+        return teams;
+    }
+
+    /**
+     * Sends every team's batch, then prints each team's results and a table of
+     * how each team got on.
+     * @return the exit code of the first team in the file that failed, or 0
+     */
+    int run() throws Exception {
+        PrintStream out = template.getOutput();
+        long start = System.nanoTime();
+        for(Team team : teams) {
+            prepare(team, start);
+            remaining += team.remaining;
+        }
+        int chains = remaining;
+        out.println("Registering " + teams.size() + " teams' batches with " + concurrency + " shared workers\n");
+
+        ExecutorService pool = Workers.newBoundedPool(concurrency, "regutil-teams");
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for(int i = 0; i < Math.min(concurrency, chains); i++) {
+                workers.add(pool.submit(this::work));
+            }
+            for(Future<Void> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for(Team team : teams) {
+            if(team.exitCode == 0) {
+                List<BulkRegistration.Result> results = new ArrayList<>();
+                for(BulkRegistration.Chain chain : team.chains) {
+                    results.addAll(chain.getResults());
+                }
+                team.exitCode = team.bulk.report(results);
+            }
+            out.println("==== " + team + " : exit code " + team.exitCode);
+            out.print(team.log.toString());
+            out.println();
+        }
+        return report(out);
+    }
+
+    /**
+     * Reads, checks and plans a team's batch, and queues its chains.
+     */
+    private void prepare(Team team, long now) {
+        PrintStream log = new PrintStream(team.log, true);
+        RegistrationUtility item = template.forCredentials(team.id, team.secret);
+        item.setOutput(log);
+        team.limiter = item.getLimiter();
+        team.bulk = new BulkRegistration(item, concurrency);
+        team.bucket = (team.rate > 0) ? new TokenBucket(team.rate, System::nanoTime) : null;
+        try {
+            List<Entry> entries = BulkRegistration.load(team.path, template.getMethod());
+            Map<String, String> hashes = item.isValidating() ? team.bulk.validate(entries) : new HashMap<>();
+            if(hashes == null) {
+                team.exitCode = 1;
+                return;
+            }
+            BatchPlanner.Plan plan = new BatchPlanner(hashes).plan(entries);
+            plan.report(log, false);
+            for(List<Entry> entriesForRoom : plan.chains) {
+                BulkRegistration.Chain chain = team.bulk.chain(entriesForRoom);
+                team.chains.add(chain);
+                team.ready.add(new Waiting(team, chain, now));
+            }
+            team.remaining = team.chains.size();
+        } catch (Exception e) {
+            log.println("Error : " + ((e.getMessage() != null) ? e.getMessage() : e.toString()));
+            team.exitCode = 1;
+        }
+    }
+
+    private Void work() throws InterruptedException {
+        for(Waiting waiting = take(); waiting != null; waiting = take()) {
+            try {
+                waiting.chain.sendNext();
+            } finally {
+                done(waiting);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the next request that can be sent, taking a request from each
+     * team in turn as their token buckets and limits on requests in flight
+     * allow. A team's limit is only raised as its requests finish, which
+     * wakes the workers waiting here.
+     * @return the chain to send the next entry of, or null once every chain is done
+     */
+    private Waiting take() throws InterruptedException {
+        lock.lock();
+        try {
+            while(remaining > 0) {
+                long wait = Long.MAX_VALUE;
+                for(int i = 0; i < teams.size(); i++) {
+                    Team team = teams.get((next + i) % teams.size());
+                    if(team.ready.isEmpty() || (team.limiter != null && team.sending >= (int) team.limiter.getLimit())) {
+                        continue;
+                    }
+                    long delay = (team.bucket != null) ? team.bucket.take() : 0;
+                    if(delay > 0) {
+                        wait = Math.min(wait, delay);
+                        continue;
+                    }
+                    //the next team gets the first look next time
+                    next = (next + i + 1) % teams.size();
+                    Waiting waiting = team.ready.poll();
+                    long now = System.nanoTime();
+                    team.queueWait.record(TimeUnit.NANOSECONDS.toMicros(now - waiting.since));
+                    if(team.started < 0) {
+                        team.started = now;
+                    }
+                    team.requests++;
+                    team.sending++;
+                    return waiting;
+                }
+                if(wait == Long.MAX_VALUE) {
+                    //everything ready is already being sent
+                    changed.await();
+                } else {
+                    changed.awaitNanos(wait);
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the rest of a chain behind the team's other rooms.
+     */
+    private void done(Waiting waiting) {
+        lock.lock();
+        try {
+            Team team = waiting.team;
+            long now = System.nanoTime();
+            team.finished = now;
+            team.sending--;
+            if(waiting.chain.isDone()) {
+                team.remaining--;
+                remaining--;
+            } else {
+                team.ready.add(new Waiting(team, waiting.chain, now));
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int report(PrintStream out) {
+        out.println(String.format("%-24s %-5s %8s %8s %13s %12s %12s", "ID", "EXIT", "REQUESTS", "REQ/s", "WAIT mean ms", "WAIT p95 ms", "WAIT max ms"));
+        int exitCode = 0;
+        for(Team team : teams) {
+            Histogram wait = team.queueWait;
+            out.println(String.format("%-24s %-5d %8d %8.1f %13.2f %12.2f %12.2f",
+                                      team.id,
+                                      team.exitCode,
+                                      team.requests,
+                                      team.getThroughput(),
+                                      wait.getMean() / 1000,
+                                      wait.percentile(95) / 1000.0,
+                                      wait.getMax() / 1000.0));
+            if(exitCode == 0) {
+                exitCode = team.exitCode;
+            }
+        }
+        out.println();
+        return exitCode;
+    }
+}
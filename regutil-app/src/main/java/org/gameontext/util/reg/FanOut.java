@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Sends the same registration, or bulk batch, to several map services at
+ * once, e.g. a local, a staging and a production one. The endpoints are read
+ * from a file with one endpoint per line of the form
+ * <pre>
+ * &lt;map service URL&gt; &lt;gameon id&gt; &lt;gameon secret&gt;
+ * </pre>
+ * Blank lines and lines starting with # are ignored.
+ *
+ * Each endpoint has its own worker, connection limit and retries, so a slow
+ * or failing endpoint doesn't hold up or fail the others. Each endpoint's
+ * output is printed as soon as it finishes. A single request is signed once
+ * for each id and secret and the signature used for every endpoint sharing
+ * them, a batch is signed per request as each endpoint gets to it.
+ */
+class FanOut {
+
+    private final RegistrationUtility template;
+    private final List<Endpoint> endpoints;
+    private final int concurrency;
+
+    FanOut(RegistrationUtility template, List<Endpoint> endpoints, int concurrency) {
+        this.template = template;
+        this.endpoints = endpoints;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * A map service and the credentials to use with it. Endpoints with the
+     * same credentials share a signer.
+     */
+    static class Endpoint {
+        final String url;
+        final String id;
+        final String secret;
+        final RequestSigner signer;
+
+        Endpoint(String url, String id, String secret, RequestSigner signer) {
+            this.url = url;
+            this.id = id;
+            this.secret = secret;
+            this.signer = signer;
+        }
+
+        @Override
+        public String toString() {
+            return url + " as " + id;
+        }
+    }
+
+    /**
+     * The outcome for a single endpoint.
+     */
+    static class Result {
+        final Endpoint endpoint;
+        final int exitCode;
+        final long millis;
+        final String log;
+
+        Result(Endpoint endpoint, int exitCode, long millis, String log) {
+            this.endpoint = endpoint;
+            this.exitCode = exitCode;
+            this.millis = millis;
+            this.log = log;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        /**
+         * @return the exit code for the endpoint
+         */
+        int run(Endpoint endpoint, RegistrationUtility item) throws Exception;
+    }
+
+    static List<Endpoint> load(String path) throws IOException {
+        File file = new File(path);
+        if(!file.isFile()) {
+            throw new IllegalArgumentException("Invalid path for endpoints file specified : " + path);
+        }
+        Map<String, RequestSigner> signers = new HashMap<>();
+        List<Endpoint> endpoints = new ArrayList<>();
+        int lineNo = 0;
+        for(String line : Files.readAllLines(file.toPath())) {
+            lineNo++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if(fields.length != 3) {
+                throw new IllegalArgumentException("Endpoints line " + lineNo + " should be '<map service URL> <gameon id> <gameon secret>'");
+            }
+            RequestSigner signer = signers.computeIfAbsent(fields[1] + "\n" + fields[2], key -> new RequestSigner(fields[1], fields[2]));
+            endpoints.add(new Endpoint(fields[0], fields[1], fields[2], signer));
+        }
+        if(endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No endpoints in " + path);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Sends the template's request to every endpoint.
+     */
+    int run() throws Exception {
+        //the signature doesn't cover the host, so one does for every endpoint with the same credentials
+        Map<RequestSigner, RequestSigner.Signature> signatures = new LinkedHashMap<>();
+        Map<Endpoint, RequestSigner.Signature> signed = new HashMap<>();
+        if(template.getMethod() != HTTP_METHOD.GET) {
+            for(Endpoint endpoint : endpoints) {
+                RequestSigner.Signature signature = signatures.get(endpoint.signer);
+                if(signature == null) {
+                    RegistrationUtility item = template.forEndpoint(endpoint);
+                    item.sign();
+                    signature = item.getSignature();
+                    signatures.put(endpoint.signer, signature);
+                }
+                signed.put(endpoint, signature);
+            }
+        }
+        template.getOutput().println("Sending " + template.getMethod() + " to " + endpoints.size() + " endpoints, signed "
+                                     + signatures.size() + " times\n");
+        return runAll((Endpoint endpoint, RegistrationUtility item) -> {
+            item.setSignature(signed.get(endpoint));
+            return RegistrationUtility.exitCode(item.execute());
+        });
+    }
+
+    /**
+     * Sends a planned batch to every endpoint, each with its own pool of workers.
+     * @param checked a batch that has already checked the files, whose bodies are sent
+     */
+    int run(BatchPlanner.Plan plan, BulkRegistration checked) throws Exception {
+        template.getOutput().println("Sending " + plan.size() + " entries to " + endpoints.size() + " endpoints\n");
+        return runAll((Endpoint endpoint, RegistrationUtility item) -> new BulkRegistration(item, concurrency, checked).run(plan));
+    }
+
+    private int runAll(Task task) throws Exception {
+        PrintStream out = template.getOutput();
+        ExecutorService pool = Workers.newBoundedPool(endpoints.size(), "regutil-fanout");
+        Map<Endpoint, Result> results = new HashMap<>();
+        try {
+            CompletionService<Result> completed = new ExecutorCompletionService<>(pool);
+            for(Endpoint endpoint : endpoints) {
+                completed.submit(() -> send(endpoint, task));
+            }
+            for(int i = 0; i < endpoints.size(); i++) {
+                //print each endpoint as it finishes, rather than waiting for the slowest
+                Result result = completed.take().get();
+                out.println("==== " + result.endpoint + " : exit code " + result.exitCode + " in " + result.millis + "ms");
+                out.print(result.log);
+                out.println();
+                results.put(result.endpoint, result);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        out.println(String.format("%-48s %-16s %-5s %8s", "ENDPOINT", "ID", "EXIT", "TIME ms"));
+        int exitCode = 0;
+        for(Endpoint endpoint : endpoints) {
+            Result result = results.get(endpoint);
+            out.println(String.format("%-48s %-16s %-5d %8d", endpoint.url, endpoint.id, result.exitCode, result.millis));
+            if(exitCode == 0) {
+                exitCode = result.exitCode;
+            }
+        }
+        out.println();
+        return exitCode;
+    }
+
+    private Result send(Endpoint endpoint, Task task) {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        int exitCode;
+        try (PrintStream out = new PrintStream(log, true)) {
+            try {
+                RegistrationUtility item = template.forEndpoint(endpoint);
+                item.setOutput(out);
+                exitCode = task.run(endpoint, item);
+            } catch (Exception e) {
+                out.println("Error : " + ((e.getMessage() != null) ? e.getMessage() : e.toString()));
+                exitCode = 1;
+            }
+        }
+        return new Result(endpoint, exitCode, (System.nanoTime() - start) / 1000000, log.toString());
+    }
+}
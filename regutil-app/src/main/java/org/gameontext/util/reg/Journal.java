@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gameontext.util.reg.BulkRegistration.Entry;
+
+/**
+ * A durable record of how far a batch has got, so that a run that was
+ * interrupted can be carried on with --resume without sending anything twice.
+ * It is newline delimited JSON that is only ever appended to, with a line
+ * before each request is sent and another once it is done, e.g.
+ * <pre>
+ * {"entry":"POST myKey rooms/myRoom.json#1","state":"sending"}
+ * {"entry":"POST myKey rooms/myRoom.json#1","state":"done","code":201,"roomid":"&lt;room ID&gt;"}
+ * </pre>
+ *
+ * A request isn't sent until the line saying it is being sent is on disk.
+ * Workers that write at the same time share a single force of the file, so
+ * a batch costs far fewer syncs than requests. Only the end of a POST is
+ * waited for, as it has the ID of the room, while losing the end of any other
+ * request just means it is sent again.
+ */
+class Journal implements Closeable {
+
+    /**
+     * What an earlier run recorded for an entry.
+     */
+    static class Record {
+        final String entry;
+        boolean done;
+        int code = -1;
+        String roomid;
+
+        Record(String entry) {
+            this.entry = entry;
+        }
+
+        boolean isSuccessful() {
+            return done && RegistrationUtility.exitCode(code) == 0;
+        }
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Map<String, Record> previous;
+
+    private final Object lock = new Object();
+    private StringBuilder pending = new StringBuilder();
+    private long appended;
+    private long written;
+    private boolean writing;
+    private IOException failure;
+    private long records;
+    private long syncs;
+
+    private Journal(Path path, FileChannel channel, Map<String, Record> previous) {
+        this.path = path;
+        this.channel = channel;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens a journal for a batch. An existing journal is only carried on from
+     * when resuming, so that an old one is never mistaken for this run's.
+     * @throws IllegalArgumentException if the journal exists and isn't being resumed, or is corrupt
+     */
+    static Journal open(Path path, boolean resume) throws IOException {
+        check(path, resume);
+        boolean exists = Files.exists(path) && Files.size(path) > 0;
+        Map<String, Record> previous = new HashMap<>();
+        long length = exists ? load(path, previous) : 0;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        //drop a line that was only partly written when the last run stopped
+        channel.truncate(length);
+        channel.position(length);
+        return new Journal(path, channel, previous);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the journal exists and isn't being resumed
+     */
+    static void check(Path path, boolean resume) throws IOException {
+        if(!resume && Files.exists(path) && Files.size(path) > 0) {
+            throw new IllegalArgumentException("The journal " + path + " is from an earlier run, carry on from it with --resume or remove it");
+        }
+    }
+
+    /**
+     * @return the length of the journal up to the end of the last whole line
+     */
+    private static long load(Path path, Map<String, Record> previous) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int start = 0;
+        int lineNo = 0;
+        for(int i = 0; i < bytes.length; i++) {
+            if(bytes[i] != '\n') {
+                continue;
+            }
+            lineNo++;
+            String line = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+            start = i + 1;
+            if(line.trim().isEmpty()) {
+                continue;
+            }
+            String problem;
+            try {
+                problem = read(Json.parse(line), previous);
+            } catch (IllegalArgumentException e) {
+                problem = e.getMessage();
+            }
+            if(problem != null) {
+                throw new IllegalArgumentException("Corrupt journal " + path + " on line " + lineNo + " : " + problem);
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Adds a line of the journal to what an earlier run recorded.
+     * @return what is wrong with the line, or null if it is a journal record
+     */
+    private static String read(Object parsed, Map<String, Record> previous) {
+        if(!(parsed instanceof Map)) {
+            return "not a JSON object";
+        }
+        Map<?, ?> fields = (Map<?, ?>) parsed;
+        Object entry = fields.get("entry");
+        Object state = fields.get("state");
+        if(!(entry instanceof String)) {
+            return "no entry";
+        }
+        if("done".equals(state)) {
+            Object code = fields.get("code");
+            Object roomid = fields.get("roomid");
+            if(!(code instanceof Number)) {
+                return "no response code for " + entry;
+            }
+            if(roomid != null && !(roomid instanceof String)) {
+                return "the room ID for " + entry + " isn't a string";
+            }
+            Record record = previous.computeIfAbsent((String) entry, Record::new);
+            record.done = true;
+            record.code = ((Number) code).intValue();
+            record.roomid = (String) roomid;
+        } else if("sending".equals(state)) {
+            //sent again after an earlier attempt
+            previous.computeIfAbsent((String) entry, Record::new).done = false;
+        } else {
+            return "unknown state " + state + " for " + entry;
+        }
+        return null;
+    }
+
+    /**
+     * Names each entry of a plan the same way on every run, with a count to
+     * tell apart entries that are otherwise the same.
+     */
+    static Map<Entry, String> keys(List<List<Entry>> chains) {
+        Map<Entry, String> keys = new IdentityHashMap<>();
+        Map<String, Integer> seen = new HashMap<>();
+        for(List<Entry> chain : chains) {
+            for(Entry entry : chain) {
+                String name = entry.toString();
+                keys.put(entry, name + "#" + seen.merge(name, 1, Integer::sum));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return what an earlier run recorded for an entry, or null if it never got to it
+     */
+    Record previous(String entry) {
+        return previous.get(entry);
+    }
+
+    /**
+     * Records that an entry is about to be sent, returning once that is on disk.
+     */
+    void sending(String entry) throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("entry", entry);
+        fields.put("state", "sending");
+        append(Json.write(fields), true);
+    }
+
+    /**
+     * Records the outcome of an entry, only waiting for it to be on disk if it
+     * registered a room.
+     */
+    void done(String entry, int code, String roomid) throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("entry", entry);
+        fields.put("state", "done");
+        fields.put("code", code);
+        if(roomid != null) {
+            fields.put("roomid", roomid);
+        }
+        append(Json.write(fields), roomid != null);
+    }
+
+    private void append(String line, boolean durable) throws IOException {
+        long ticket;
+        synchronized(lock) {
+            if(failure != null) {
+                throw new IOException("Unable to write to the journal " + path, failure);
+            }
+            pending.append(line).append('\n');
+            ticket = ++appended;
+            records++;
+        }
+        if(durable) {
+            sync(ticket);
+        }
+    }
+
+    /**
+     * Waits until everything up to a ticket is on disk. Whoever finds nobody
+     * writing takes every line appended so far and forces them in one go,
+     * while the rest wait for it.
+     */
+    private void sync(long ticket) throws IOException {
+        while(true) {
+            StringBuilder batch;
+            long upTo;
+            synchronized(lock) {
+                while(writing && written < ticket) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writing to the journal " + path);
+                    }
+                }
+                if(failure != null) {
+                    throw new IOException("Unable to write to the journal " + path, failure);
+                }
+                if(written >= ticket) {
+                    return;
+                }
+                writing = true;
+                batch = pending;
+                pending = new StringBuilder();
+                upTo = appended;
+            }
+            IOException error = null;
+            try {
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(batch.toString());
+                while(bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized(lock) {
+                writing = false;
+                if(error != null) {
+                    failure = error;
+                } else {
+                    written = upTo;
+                    syncs++;
+                }
+                lock.notifyAll();
+            }
+            if(error != null) {
+                throw error;
+            }
+        }
+    }
+
+    long getRecords() {
+        synchronized(lock) {
+            return records;
+        }
+    }
+
+    long getSyncs() {
+        synchronized(lock) {
+            return syncs;
+        }
+    }
+
+    /**
+     * @return e.g. "120 records in 9 syncs"
+     */
+    String describe() {
+        synchronized(lock) {
+            return records + " records in " + syncs + " syncs";
+        }
+    }
+
+    /**
+     * Writes anything that hasn't been yet.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            long ticket;
+            boolean failed;
+            synchronized(lock) {
+                ticket = appended;
+                failed = (failure != null);
+            }
+            if(!failed) {
+                sync(ticket);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Just enough JSON for the utility to read and write registrations without
+ * pulling in another dependency. Objects are read as a {@link LinkedHashMap},
+ * arrays as a {@link List}, numbers as a {@link BigDecimal}, and strings,
+ * booleans and null as the matching Java values.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Parses a single JSON value.
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    static Object parse(String text) {
+        try {
+            Parser parser = new Parser(new StringReader(text));
+            Object value = parser.readValue();
+            if(parser.peek() != -1) {
+                throw parser.error("Unexpected content after JSON value");
+            }
+            return value;
+        } catch (IOException e) {
+            // can't happen with a StringReader
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a value without any extra white space.
+     */
+    static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(value, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Writes a value in a canonical form, with no extra white space and the
+     * fields of every object sorted by name, so equivalent JSON always
+     * produces the same text.
+     */
+    static String canonical(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(sorted(value), sb);
+        return sb.toString();
+    }
+
+    private static Object sorted(Object value) {
+        if(value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<>();
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                sorted.put(String.valueOf(entry.getKey()), sorted(entry.getValue()));
+            }
+            return sorted;
+        }
+        if(value instanceof List) {
+            List<Object> sorted = new ArrayList<>();
+            for(Object item : (List<?>) value) {
+                sorted.add(sorted(item));
+            }
+            return sorted;
+        }
+        return value;
+    }
+
+    static void write(Object value, StringBuilder sb) {
+        if(value == null) {
+            sb.append("null");
+        } else if(value instanceof String) {
+            quote((String) value, sb);
+        } else if(value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if(!first) {
+                    sb.append(',');
+                }
+                first = false;
+                quote(String.valueOf(entry.getKey()), sb);
+                sb.append(':');
+                write(entry.getValue(), sb);
+            }
+            sb.append('}');
+        } else if(value instanceof List) {
+            sb.append('[');
+            boolean first = true;
+            for(Object item : (List<?>) value) {
+                if(!first) {
+                    sb.append(',');
+                }
+                first = false;
+                write(item, sb);
+            }
+            sb.append(']');
+        } else if(value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            throw new IllegalArgumentException("Can't write " + value.getClass().getName() + " as JSON");
+        }
+    }
+
+    static void quote(String value, StringBuilder sb) {
+        sb.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\b':
+                sb.append("\\b");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            default:
+                if(c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Reads JSON values from a character stream, one character of look ahead at a time.
+     */
+    static class Parser {
+        private final Reader in;
+        private int next = -2;     //-2 means nothing has been read ahead
+        private long position = 0;
+        private boolean firstElement;
+
+        Parser(Reader in) {
+            this.in = in;
+        }
+
+        /** The next non white space character, without consuming it, or -1 at the end of the input */
+        int peek() throws IOException {
+            while(true) {
+                if(next == -2) {
+                    next = in.read();
+                    position++;
+                }
+                if(next == ' ' || next == '\t' || next == '\n' || next == '\r') {
+                    next = -2;
+                } else {
+                    return next;
+                }
+            }
+        }
+
+        private int read() throws IOException {
+            int c = (next == -2) ? in.read() : next;
+            if(next == -2) {
+                position++;
+            }
+            next = -2;
+            return c;
+        }
+
+        void expect(char expected) throws IOException {
+            if(peek() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+            read();
+        }
+
+        /**
+         * Starts reading an array an element at a time, so that a large array
+         * never has to be held in memory. Only one array at a time can be read
+         * this way.
+         */
+        void beginArray() throws IOException {
+            expect('[');
+            firstElement = true;
+        }
+
+        /**
+         * Moves on to the next element of the array started with {@link #beginArray()}.
+         * @return true if there is another element to read with {@link #readValue()},
+         *         false once the end of the array has been consumed
+         */
+        boolean nextElement() throws IOException {
+            if(peek() == ']') {
+                read();
+                return false;
+            }
+            if(!firstElement) {
+                expect(',');
+            }
+            firstElement = false;
+            return true;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at character " + position);
+        }
+
+        Object readValue() throws IOException {
+            int c = peek();
+            switch(c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                readLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                readLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                readLiteral("null");
+                return null;
+            case -1:
+                throw error("Unexpected end of JSON");
+            default:
+                if(c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+            }
+        }
+
+        private Map<String, Object> readObject() throws IOException {
+            expect('{');
+            Map<String, Object> object = new LinkedHashMap<>();
+            if(peek() == '}') {
+                read();
+                return object;
+            }
+            while(true) {
+                if(peek() != '"') {
+                    throw error("Expected a field name");
+                }
+                String key = readString();
+                expect(':');
+                object.put(key, readValue());
+                int c = peek();
+                read();
+                if(c == '}') {
+                    return object;
+                }
+                if(c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> readArray() throws IOException {
+            expect('[');
+            List<Object> array = new ArrayList<>();
+            if(peek() == ']') {
+                read();
+                return array;
+            }
+            while(true) {
+                array.add(readValue());
+                int c = peek();
+                read();
+                if(c == ']') {
+                    return array;
+                }
+                if(c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while(true) {
+                int c = read();
+                if(c == -1) {
+                    throw error("Unterminated string");
+                }
+                if(c == '"') {
+                    return sb.toString();
+                }
+                if(c == '\\') {
+                    int escaped = read();
+                    switch(escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append((char) escaped);
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for(int i = 0; i < hex.length; i++) {
+                            int h = read();
+                            if(h == -1) {
+                                throw error("Unterminated string");
+                            }
+                            hex[i] = (char) h;
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(new String(hex), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                    }
+                } else {
+                    sb.append((char) c);
+                }
+            }
+        }
+
+        private BigDecimal readNumber() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c = (next == -2) ? -2 : next;
+            while(true) {
+                if(c == -2) {
+                    c = in.read();
+                    position++;
+                }
+                if((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    sb.append((char) c);
+                    c = -2;
+                } else {
+                    next = c;
+                    break;
+                }
+            }
+            try {
+                return new BigDecimal(sb.toString());
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + sb);
+            }
+        }
+
+        private void readLiteral(String literal) throws IOException {
+            for(int i = 0; i < literal.length(); i++) {
+                if(read() != literal.charAt(i)) {
+                    throw error("Expected " + literal);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Drives signed requests at the map service, either as fast as a fixed number
+ * of workers can send them or at a fixed rate, and reports the throughput,
+ * latency percentiles and a breakdown of the responses.
+ *
+ * Requests are built and sent by the utility itself, so what is measured is
+ * what a registration costs. With a fixed rate, latency is measured from when
+ * each request should have started, so a stalled server shows up in the
+ * percentiles rather than simply lowering the rate.
+ */
+class LoadTest {
+
+    static final long DEFAULT_DURATION_SECS = 10;
+
+    private final RegistrationUtility template;
+    private final int concurrency;
+    private final double rate;
+    private final long durationNanos;
+    private final long maxRequests;
+    private final HTTP_METHOD[] mix;
+
+    private final Histogram latency = new Histogram();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final Map<HTTP_METHOD, LongAdder> methods = new EnumMap<>(HTTP_METHOD.class);
+    private final LongAdder errors = new LongAdder();
+    private final List<String> roomids = new ArrayList<>();
+
+    /**
+     * @param rate requests per second, or 0 to send as fast as the workers can
+     * @param durationSecs how long to run for
+     * @param maxRequests stop after this many requests, or 0 for no limit
+     * @param mix the weight of each method in the requests sent
+     */
+    LoadTest(RegistrationUtility template, int concurrency, double rate, long durationSecs, long maxRequests, Map<HTTP_METHOD, Integer> mix) {
+        this.template = template;
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSecs);
+        this.maxRequests = maxRequests;
+        List<HTTP_METHOD> weighted = new ArrayList<>();
+        for(Map.Entry<HTTP_METHOD, Integer> entry : mix.entrySet()) {
+            for(int i = 0; i < entry.getValue(); i++) {
+                weighted.add(entry.getKey());
+            }
+        }
+        if(weighted.isEmpty()) {
+            throw new IllegalArgumentException("The load test mix must include at least one method");
+        }
+        this.mix = weighted.toArray(new HTTP_METHOD[weighted.size()]);
+        for(HTTP_METHOD method : HTTP_METHOD.values()) {
+            methods.put(method, new LongAdder());
+        }
+        if(template.getRoomid() != null) {
+            roomids.add(template.getRoomid());
+        }
+    }
+
+    /**
+     * Parses a mix of the form POST:1,PUT:4,GET:4,DELETE:1
+     */
+    static Map<HTTP_METHOD, Integer> parseMix(String mix) {
+        Map<HTTP_METHOD, Integer> weights = new EnumMap<>(HTTP_METHOD.class);
+        for(String part : mix.split(",")) {
+            String[] fields = part.trim().split(":");
+            try {
+                weights.put(HTTP_METHOD.valueOf(fields[0].toUpperCase()), (fields.length > 1) ? Integer.parseInt(fields[1]) : 1);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid load test mix, expected e.g. POST:1,PUT:4,GET:4 : " + mix);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Runs the load test and prints a report.
+     * @return 0 if every request succeeded, otherwise 1
+     */
+    int run() throws Exception {
+        PrintStream out = template.getOutput();
+        out.println("Load testing " + template.getUrl() + " with " + concurrency + " workers"
+                        + (rate > 0 ? " at " + rate + " requests/sec" : "")
+                        + (maxRequests > 0 ? " for " + maxRequests + " requests" : " for " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " seconds"));
+
+        AtomicLong tickets = new AtomicLong();
+        long start = System.nanoTime();
+        ExecutorService pool = Workers.newBoundedPool(concurrency, "regutil-load");
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for(int i = 0; i < concurrency; i++) {
+                workers.add(pool.submit(() -> {
+                    work(tickets, start);
+                    return null;
+                }));
+            }
+            for(Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        report(out, elapsed);
+        return (errors.sum() == 0) ? 0 : 1;
+    }
+
+    private void work(AtomicLong tickets, long start) throws InterruptedException {
+        long interval = (rate > 0) ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        while(true) {
+            long ticket = tickets.getAndIncrement();
+            if(maxRequests > 0 && ticket >= maxRequests) {
+                return;
+            }
+            long now = System.nanoTime();
+            long intended = (interval > 0) ? start + ticket * interval : now;
+            if(maxRequests == 0 && intended - start >= durationNanos) {
+                return;
+            }
+            if(intended > now) {
+                TimeUnit.NANOSECONDS.sleep(intended - now);
+            }
+            send(mix[ThreadLocalRandom.current().nextInt(mix.length)]);
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+        }
+    }
+
+    private void send(HTTP_METHOD method) {
+        String roomid = null;
+        if(method != HTTP_METHOD.POST) {
+            roomid = pickRoom(method == HTTP_METHOD.DELETE);
+            if(roomid == null) {
+                //nothing to work with until a room has been registered
+                method = HTTP_METHOD.POST;
+            }
+        }
+        methods.get(method).increment();
+        String outcome;
+        try {
+            RegistrationUtility item = template.forRequest(method, roomid);
+            item.setOutput(RegistrationClient.DISCARD);
+            ByteBuffer body = template.getBodyBytes();
+            if(method == HTTP_METHOD.POST || method == HTTP_METHOD.PUT) {
+                item.setBodyBytes(body);
+            }
+            int code = item.execute();
+            outcome = String.valueOf(code);
+            if(RegistrationUtility.exitCode(code) != 0) {
+                errors.increment();
+            } else if(method == HTTP_METHOD.POST) {
+                addRoom(item.getResponse());
+            }
+        } catch (Exception e) {
+            errors.increment();
+            outcome = e.getClass().getSimpleName();
+        }
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    private String pickRoom(boolean remove) {
+        synchronized(roomids) {
+            if(roomids.isEmpty()) {
+                return null;
+            }
+            int i = ThreadLocalRandom.current().nextInt(roomids.size());
+            return remove ? roomids.remove(i) : roomids.get(i);
+        }
+    }
+
+    private void addRoom(String response) {
+        try {
+            Object site = (response != null) ? Json.parse(response) : null;
+            Object id = (site instanceof Map) ? ((Map<?, ?>) site).get("_id") : null;
+            if(id != null) {
+                synchronized(roomids) {
+                    roomids.add(String.valueOf(id));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // not a site, so there's nothing to reuse
+        }
+    }
+
+    private void report(PrintStream out, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long total = latency.getCount();
+        out.println();
+        out.println(String.format("Requests   : %d in %.2fs, %.1f requests/sec, %d errors", total, seconds, total / seconds, errors.sum()));
+        out.println(String.format("Latency ms : mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+                                  latency.getMean() / 1000,
+                                  latency.percentile(50) / 1000.0,
+                                  latency.percentile(90) / 1000.0,
+                                  latency.percentile(99) / 1000.0,
+                                  latency.percentile(99.9) / 1000.0,
+                                  latency.getMax() / 1000.0));
+        StringBuilder sent = new StringBuilder();
+        for(Map.Entry<HTTP_METHOD, LongAdder> entry : methods.entrySet()) {
+            if(entry.getValue().sum() > 0) {
+                sent.append(sent.length() > 0 ? ", " : "").append(entry.getKey()).append(" ").append(entry.getValue().sum());
+            }
+        }
+        out.println("Methods    : " + sent);
+        StringBuilder responses = new StringBuilder();
+        for(Map.Entry<String, LongAdder> entry : new TreeMap<>(outcomes).entrySet()) {
+            responses.append(responses.length() > 0 ? ", " : "").append(entry.getKey()).append(" x ").append(entry.getValue().sum());
+        }
+        out.println("Responses  : " + responses);
+        out.println();
+    }
+}
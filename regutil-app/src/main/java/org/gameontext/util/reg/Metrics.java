@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Counters and timing histograms across all the requests in a run, which can
+ * be exported as JSON or in the Prometheus text format. Times are recorded in
+ * microseconds.
+ */
+final class Metrics {
+
+    /**
+     * Where the time goes in a single request.
+     */
+    enum Phase {
+        FILE_READ("file_read"),
+        SIGNING("signing"),
+        CONNECT("connect"),
+        BODY_WRITE("body_write"),
+        FIRST_BYTE("first_byte"),
+        RESPONSE_READ("response_read");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /** Histogram bucket bounds for the Prometheus export, in seconds */
+    private static final double[] BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+    private final Histogram total = new Histogram();
+    private final Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+    private final Map<HTTP_METHOD, LongAdder> methods = new EnumMap<>(HTTP_METHOD.class);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    Metrics() {
+        for(Phase phase : Phase.values()) {
+            phases.put(phase, new Histogram());
+        }
+        for(HTTP_METHOD method : HTTP_METHOD.values()) {
+            methods.put(method, new LongAdder());
+        }
+    }
+
+    /**
+     * Records a request that got a response.
+     * @param timings the nanoseconds spent in each phase, indexed by ordinal, negative if it wasn't timed
+     */
+    void record(HTTP_METHOD method, int code, long[] timings, long totalNanos, long bodyBytes) {
+        methods.get(method).increment();
+        responses.computeIfAbsent(String.valueOf(code), key -> new LongAdder()).increment();
+        if(RegistrationUtility.exitCode(code) != 0) {
+            errors.increment();
+        }
+        for(Phase phase : Phase.values()) {
+            if(timings[phase.ordinal()] >= 0) {
+                phases.get(phase).record(TimeUnit.NANOSECONDS.toMicros(timings[phase.ordinal()]));
+            }
+        }
+        total.record(TimeUnit.NANOSECONDS.toMicros(totalNanos));
+        bytesSent.add(bodyBytes);
+    }
+
+    /**
+     * Records a request that failed without a response.
+     */
+    void recordFailure(HTTP_METHOD method, Exception e) {
+        methods.get(method).increment();
+        responses.computeIfAbsent(e.getClass().getSimpleName(), key -> new LongAdder()).increment();
+        errors.increment();
+    }
+
+    /**
+     * Records that a request is about to be resent. Each attempt is also
+     * recorded on its own.
+     */
+    void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Writes the metrics to a file, in the Prometheus text format unless the
+     * file name ends with .json.
+     */
+    void write(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            if(path.getFileName().toString().endsWith(".json")) {
+                writer.write(Json.write(toJson()));
+                writer.write('\n');
+            } else {
+                writePrometheus(writer);
+            }
+        }
+    }
+
+    Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("requests", total.getCount() + countFailures());
+        json.put("errors", errors.sum());
+        json.put("bytesSent", bytesSent.sum());
+        json.put("retries", retries.sum());
+        Map<String, Object> byMethod = new LinkedHashMap<>();
+        for(Map.Entry<HTTP_METHOD, LongAdder> entry : methods.entrySet()) {
+            byMethod.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        json.put("methods", byMethod);
+        Map<String, Object> byResponse = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> entry : responses.entrySet()) {
+            byResponse.put(entry.getKey(), entry.getValue().sum());
+        }
+        json.put("responses", byResponse);
+        json.put("total", summary(total));
+        Map<String, Object> byPhase = new LinkedHashMap<>();
+        for(Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+            byPhase.put(entry.getKey().label, summary(entry.getValue()));
+        }
+        json.put("phases", byPhase);
+        return json;
+    }
+
+    private long countFailures() {
+        long failures = 0;
+        for(Map.Entry<String, LongAdder> entry : responses.entrySet()) {
+            if(!Character.isDigit(entry.getKey().charAt(0))) {
+                failures += entry.getValue().sum();
+            }
+        }
+        return failures;
+    }
+
+    private static Map<String, Object> summary(Histogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getCount());
+        summary.put("meanMs", millis(histogram.getMean()));
+        summary.put("p50Ms", millis(histogram.percentile(50)));
+        summary.put("p90Ms", millis(histogram.percentile(90)));
+        summary.put("p99Ms", millis(histogram.percentile(99)));
+        summary.put("maxMs", millis(histogram.getMax()));
+        return summary;
+    }
+
+    private static Number millis(double micros) {
+        return new BigDecimal(micros / 1000).setScale(3, RoundingMode.HALF_UP);
+    }
+
+    void writePrometheus(Writer writer) throws IOException {
+        counter(writer, "regutil_requests_total", "Requests sent to the map service, by method");
+        for(Map.Entry<HTTP_METHOD, LongAdder> entry : methods.entrySet()) {
+            writer.write("regutil_requests_total{method=\"" + entry.getKey() + "\"} " + entry.getValue().sum() + "\n");
+        }
+        counter(writer, "regutil_responses_total", "Responses by status code, or the exception for requests that failed");
+        for(Map.Entry<String, LongAdder> entry : new TreeMap<>(responses).entrySet()) {
+            writer.write("regutil_responses_total{code=\"" + entry.getKey() + "\"} " + entry.getValue().sum() + "\n");
+        }
+        counter(writer, "regutil_errors_total", "Requests that failed or got a response outside 200 - 204");
+        writer.write("regutil_errors_total " + errors.sum() + "\n");
+        counter(writer, "regutil_retries_total", "Requests resent after the map service pushed back or couldn't be reached");
+        writer.write("regutil_retries_total " + retries.sum() + "\n");
+        counter(writer, "regutil_bytes_sent_total", "Request body bytes sent");
+        writer.write("regutil_bytes_sent_total " + bytesSent.sum() + "\n");
+
+        writer.write("# HELP regutil_request_seconds Time for a complete request, from signing to reading the response\n");
+        writer.write("# TYPE regutil_request_seconds histogram\n");
+        buckets(writer, "regutil_request_seconds", "", total);
+        writer.write("# HELP regutil_phase_seconds Time spent in each phase of a request\n");
+        writer.write("# TYPE regutil_phase_seconds histogram\n");
+        for(Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+            buckets(writer, "regutil_phase_seconds", "phase=\"" + entry.getKey().label + "\",", entry.getValue());
+        }
+    }
+
+    private static void counter(Writer writer, String name, String help) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " counter\n");
+    }
+
+    private static void buckets(Writer writer, String name, String labels, Histogram histogram) throws IOException {
+        for(double bound : BUCKETS) {
+            long micros = (long) (bound * 1000000);
+            writer.write(name + "_bucket{" + labels + "le=\"" + bound + "\"} " + histogram.countAtOrBelow(micros) + "\n");
+        }
+        String bare = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        writer.write(name + "_bucket{" + labels + "le=\"+Inf\"} " + histogram.getCount() + "\n");
+        writer.write(name + "_sum" + bare + " " + String.format(Locale.ROOT, "%.6f", histogram.getSum() / 1e6) + "\n");
+        writer.write(name + "_count" + bare + " " + histogram.getCount() + "\n");
+    }
+}
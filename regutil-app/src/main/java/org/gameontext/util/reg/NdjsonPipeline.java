@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Streams registrations from newline delimited JSON, one record per line of the form
+ * <pre>
+ * {"method":"PUT","roomid":"&lt;room ID&gt;","body":{ ...registration... }}
+ * </pre>
+ * The method defaults to the one given with -m, and the body may be a JSON
+ * object or a string. Each record is read, validated and sent as soon as it
+ * arrives, with a bounded queue between each stage so that a slow map service
+ * holds back the reader rather than filling memory. Records are signed as
+ * they are sent, so time spent queued can't age the date in the signature
+ * past the map service's allowed clock skew. A result line is
+ * written for every record, in the order they complete, e.g.
+ * <pre>
+ * {"line":1,"method":"PUT","roomid":"&lt;room ID&gt;","code":200,"exit":0,"response":{...}}
+ * </pre>
+ */
+class NdjsonPipeline {
+
+    static final int QUEUE_SIZE = 64;
+
+    /** Marks the end of the input as it passes through each stage */
+    private static final Record END = new Record(0, null);
+
+    private final RegistrationUtility template;
+    private final int concurrency;
+    private final int queueSize;
+    private final ThreadFactory threads = Workers.threadFactory("regutil-pipeline");
+
+    NdjsonPipeline(RegistrationUtility template, int concurrency) {
+        this(template, concurrency, QUEUE_SIZE);
+    }
+
+    NdjsonPipeline(RegistrationUtility template, int concurrency, int queueSize) {
+        this.template = template;
+        this.concurrency = concurrency;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * A record as it passes through the pipeline. Once an error is set the
+     * remaining stages pass it straight through to be written out.
+     */
+    private static class Record {
+        final long line;
+        final String text;
+        HTTP_METHOD method;
+        String roomid;
+        String body;
+        int code = -1;
+        String response;
+        String error;
+
+        Record(long line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+
+        int exitCode() {
+            return (error != null) ? 1 : RegistrationUtility.exitCode(code);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void process(Record record) throws Exception;
+    }
+
+    /**
+     * Runs the pipeline until the input is exhausted and every result has been written.
+     * @return the exit code of the earliest record that failed, or 0
+     */
+    int run(InputStream in, PrintStream out) throws Exception {
+        BlockingQueue<Record> read = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Record> validated = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Record> sent = new ArrayBlockingQueue<>(queueSize);
+
+        List<Thread> stages = new ArrayList<>();
+        stages.add(threads.newThread(() -> readLines(in, read)));
+        stages.addAll(startStage(1, read, validated, this::validate));
+        stages.addAll(startStage(concurrency, validated, sent, this::send));
+        for(Thread stage : stages) {
+            stage.start();
+        }
+
+        long failedLine = Long.MAX_VALUE;
+        int exitCode = 0;
+        for(Record record = sent.take(); record != END; record = sent.take()) {
+            out.println(Json.write(result(record)));
+            out.flush();
+            if(record.exitCode() != 0 && record.line < failedLine) {
+                failedLine = record.line;
+                exitCode = record.exitCode();
+            }
+        }
+        for(Thread stage : stages) {
+            stage.join();
+        }
+        return exitCode;
+    }
+
+    private void readLines(InputStream in, BlockingQueue<Record> to) {
+        try {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                long line = 0;
+                for(String text = reader.readLine(); text != null; text = reader.readLine()) {
+                    line++;
+                    if(!text.trim().isEmpty()) {
+                        to.put(new Record(line, text));
+                    }
+                }
+            } catch (Exception e) {
+                Record record = new Record(-1, null);
+                record.error = "Unable to read input : " + e.getMessage();
+                to.put(record);
+            }
+            to.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the workers for a stage. Each worker hands the end marker back to
+     * its siblings, and the last one to finish passes it on to the next stage.
+     */
+    private List<Thread> startStage(int workers, BlockingQueue<Record> from, BlockingQueue<Record> to, Stage stage) {
+        AtomicInteger running = new AtomicInteger(workers);
+        List<Thread> started = new ArrayList<>();
+        for(int i = 0; i < workers; i++) {
+            started.add(threads.newThread(() -> {
+                try {
+                    for(Record record = from.take(); record != END; record = from.take()) {
+                        if(record.error == null) {
+                            try {
+                                stage.process(record);
+                            } catch (Exception e) {
+                                record.error = (e.getMessage() != null) ? e.getMessage() : e.toString();
+                            }
+                        }
+                        to.put(record);
+                    }
+                    from.put(END);
+                    if(running.decrementAndGet() == 0) {
+                        to.put(END);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        return started;
+    }
+
+    private void validate(Record record) {
+        Object parsed = Json.parse(record.text);
+        if(!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("Each line must be a JSON object");
+        }
+        Map<?, ?> fields = (Map<?, ?>) parsed;
+
+        Object method = fields.get("method");
+        try {
+            record.method = (method == null) ? template.getMethod() : HTTP_METHOD.valueOf(String.valueOf(method).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown HTTP method : " + method);
+        }
+
+        Object roomid = fields.get("roomid");
+        if(roomid != null) {
+            record.roomid = String.valueOf(roomid);
+        } else if(record.method != HTTP_METHOD.POST) {
+            throw new IllegalArgumentException("A roomid is required for " + record.method);
+        }
+
+        Object body = fields.get("body");
+        if(body instanceof String) {
+            record.body = (String) body;
+        } else if(body instanceof Map) {
+            record.body = Json.write(body);
+        } else if(body != null) {
+            throw new IllegalArgumentException("The body must be a JSON object or a string");
+        } else if(record.method == HTTP_METHOD.POST || record.method == HTTP_METHOD.PUT) {
+            throw new IllegalArgumentException("A body is required for " + record.method);
+        }
+        if(record.body != null && template.isValidating()) {
+            String canonical = RoomValidator.canonical(record.body);
+            record.body = template.isRawBody() ? record.body : canonical;
+        }
+    }
+
+    /**
+     * Sends a record, leaving the client to sign it once it has a connection
+     * and is about to write the request.
+     */
+    private void send(Record record) throws Exception {
+        RegistrationUtility item = template.forRequest(record.method, record.roomid);
+        item.setOutput(RegistrationClient.DISCARD);
+        if(record.body != null) {
+            item.setBody(record.body);
+        }
+        record.code = item.execute();
+        record.response = item.getResponse();
+    }
+
+    private static Map<String, Object> result(Record record) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("line", record.line);
+        if(record.method != null) {
+            result.put("method", record.method.name());
+        }
+        if(record.roomid != null) {
+            result.put("roomid", record.roomid);
+        }
+        if(record.code >= 0) {
+            result.put("code", record.code);
+        }
+        result.put("exit", record.exitCode());
+        if(record.response != null && !record.response.isEmpty()) {
+            Object response;
+            try {
+                response = Json.parse(record.response);
+            } catch (IllegalArgumentException e) {
+                response = record.response;
+            }
+            result.put("response", response);
+        }
+        if(record.error != null) {
+            result.put("error", record.error);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * A transport that keeps connections alive between requests. Every
+ * connection shares one SSLContext, so TLS sessions are resumed rather than
+ * renegotiated, and the same socket factory and host name verifier, which
+ * the JDK requires before it will hand out a cached connection. Host names
+ * are checked against the certificate unless we trust all certificates.
+ *
+ * Connections only go back into the pool once their response has been read
+ * to the end and closed.
+ */
+class PooledTransport implements Transport {
+
+    /** Maximum idle connections kept per host, unless set on the command line */
+    static final int MAX_CONNECTIONS = 64;
+
+    private static final int SESSION_CACHE_SIZE = 256;
+    private static final int SESSION_TIMEOUT_SECS = 24 * 60 * 60;
+    private static class Shared {
+        static final PooledTransport INSTANCE = new PooledTransport(false);
+    }
+
+    private static class Permissive {
+        static final HostnameVerifier INSTANCE = (String s, SSLSession ses) -> {return true;};
+    }
+
+    private final boolean trustAll;
+    private volatile SSLSocketFactory factory;
+
+    /**
+     * @param trustAll use {@link TheVeryTrustingTrustManager} rather than the
+     * default trust store, and accept any host name, for map services with
+     * self signed certificates.
+     */
+    PooledTransport(boolean trustAll) {
+        // the JDK reads this once, when the first connection is pooled
+        if(System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_CONNECTIONS));
+        }
+        this.trustAll = trustAll;
+    }
+
+    static PooledTransport shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Creates the SSLContext on first use. Loading and initialising TLS is a
+     * large part of a cold start, and plain HTTP doesn't need it.
+     */
+    private SSLSocketFactory factory() {
+        SSLSocketFactory result = factory;
+        if(result == null) {
+            synchronized(this) {
+                result = factory;
+                if(result == null) {
+                    try {
+                        SSLContext ctx = SSLContext.getInstance("TLS");
+                        ctx.init(null, trustAll ? new TrustManager[] { new TheVeryTrustingTrustManager() } : null, null);
+                        ctx.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+                        ctx.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECS);
+                        factory = result = ctx.getSocketFactory();
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException("Unable to initialise TLS : " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        if(con instanceof HttpsURLConnection) {
+            HttpsURLConnection https = (HttpsURLConnection) con;
+            https.setSSLSocketFactory(factory());
+            if(trustAll) {
+                //a self signed certificate rarely names the host it is used on
+                https.setHostnameVerifier(Permissive.INSTANCE);
+            }
+        }
+        return con;
+    }
+}
@@ -0,0 +1,716 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * A client for the map service's sites endpoint, for services that register
+ * rooms in process. A client can't be changed once it is built, so one can
+ * be shared by any number of threads. Every request goes through the same
+ * transport, so connections and TLS sessions are reused, and is signed by the
+ * same signer.
+ *
+ * Requests run on the client's executor. The returned future completes with
+ * the {@link Response}, whatever its status code, and only completes
+ * exceptionally if no response was received once any retries were used up.
+ * <pre>
+ * try (RegistrationClient client = RegistrationClient.builder(id, secret).build()) {
+ *     Response response = client.register(json).get();
+ * }
+ * </pre>
+ */
+public final class RegistrationClient implements AutoCloseable {
+
+    public static final String DEFAULT_URL = "https://game-on.org/map/v1/sites";
+
+    /** Threads for the default executor where the JDK doesn't have virtual threads */
+    static final int DEFAULT_THREADS = 64;
+
+    private static final String SITES_PATH = "/map/v1/sites";
+    private static final ByteBuffer EMPTY_BODY = ByteBuffer.wrap(new byte[0]);
+    /** Somewhere to send output nobody will read */
+    static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    private final String url;
+    private final RequestSigner signer;
+    private final Transport transport;
+    private final RetryPolicy retryPolicy;
+    private final AdaptiveLimiter limiter;
+    private final Metrics metrics;
+    private final ResponseCache cache;
+    private final boolean gzip;
+    private final Executor executor;
+    private volatile ExecutorService ownExecutor;
+
+    private RegistrationClient(Builder builder) {
+        this.url = builder.url;
+        this.signer = (builder.signer != null) ? builder.signer
+                    : (builder.id != null || builder.secret != null) ? new RequestSigner(builder.id, builder.secret) : null;
+        this.transport = (builder.transport != null) ? builder.transport : PooledTransport.shared();
+        this.retryPolicy = builder.retryPolicy;
+        this.limiter = (builder.limiter != null) ? builder.limiter
+                     : (builder.maxConcurrency > 0) ? new AdaptiveLimiter(builder.maxConcurrency) : null;
+        this.metrics = builder.metrics;
+        this.cache = builder.cache;
+        this.gzip = builder.gzip;
+        this.executor = builder.executor;
+    }
+
+    /**
+     * @param id the GameOn! id to sign requests with
+     * @param secret the shared secret for the id
+     */
+    public static Builder builder(String id, String secret) {
+        return new Builder(id, secret);
+    }
+
+    public static final class Builder {
+        private final String id;
+        private final String secret;
+        private String url = DEFAULT_URL;
+        private RequestSigner signer;
+        private Transport transport;
+        private RetryPolicy retryPolicy = new RetryPolicy(RetryPolicy.DEFAULT_RETRIES, RetryPolicy.DEFAULT_BASE_DELAY_MILLIS);
+        private int maxConcurrency = 0;
+        private AdaptiveLimiter limiter;
+        private Metrics metrics;
+        private ResponseCache cache;
+        private boolean gzip = false;
+        private Executor executor;
+
+        private Builder(String id, String secret) {
+            this.id = id;
+            this.secret = secret;
+        }
+
+        /** The sites endpoint, defaults to {@link RegistrationClient#DEFAULT_URL} */
+        public Builder url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        /** How connections are opened, defaults to a shared pool of keep alive connections */
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * How often to retry a request the map service pushed back on, or
+         * that couldn't connect, with exponential backoff from the given delay.
+         * Defaults to 3 retries from 250ms, 0 turns retries off.
+         */
+        public Builder retries(int retries, long baseDelayMillis) {
+            this.retryPolicy = new RetryPolicy(retries, baseDelayMillis);
+            return this;
+        }
+
+        /**
+         * The most requests to have in flight at once. The client halves this
+         * while the map service pushes back and builds it up again after.
+         * Unlimited by default.
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            this.limiter = null;
+            return this;
+        }
+
+        /**
+         * Whether to compress request bodies with gzip, and ask for gzip
+         * responses. The body is signed as it is sent, compressed. Off by default.
+         */
+        public Builder gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        /**
+         * Where requests run. Defaults to virtual threads where the JDK has
+         * them, otherwise a pool of {@value RegistrationClient#DEFAULT_THREADS} threads.
+         * The client doesn't shut down an executor it is given.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        Builder signer(RequestSigner signer) {
+            this.signer = signer;
+            return this;
+        }
+
+        Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        Builder limiter(AdaptiveLimiter limiter) {
+            this.limiter = limiter;
+            return this;
+        }
+
+        Builder metrics(Metrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        Builder cache(ResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public RegistrationClient build() {
+            return new RegistrationClient(this);
+        }
+    }
+
+    /**
+     * The outcome of a request that got a response.
+     */
+    public static final class Response {
+        private final int code;
+        private final String body;
+        private final int attempts;
+        private final long[] timings;
+
+        private Response(Exchange exchange, int code) {
+            this.code = code;
+            this.body = exchange.response;
+            this.attempts = exchange.attempts;
+            this.timings = exchange.timings.clone();
+        }
+
+        /** The HTTP status code */
+        public int getCode() {
+            return code;
+        }
+
+        /** The response body, or null if there wasn't one */
+        public String getBody() {
+            return body;
+        }
+
+        /** Whether the code was 200 - 204 */
+        public boolean isSuccessful() {
+            return RegistrationUtility.exitCode(code) == 0;
+        }
+
+        /** How many times the request was sent, more than 1 if it was retried */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * The _id of the site in the body, for a successful register, update or get.
+         * @return the id, or null if the body isn't a site
+         */
+        public String getSiteId() {
+            if(body == null || !isSuccessful()) {
+                return null;
+            }
+            try {
+                Object site = Json.parse(body);
+                Object id = (site instanceof Map) ? ((Map<?, ?>) site).get("_id") : null;
+                return (id != null) ? String.valueOf(id) : null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Nanoseconds spent in each phase of the last attempt, indexed by
+         * {@link Metrics.Phase} ordinal, negative for phases that weren't timed.
+         */
+        long[] getTimings() {
+            return timings.clone();
+        }
+
+        @Override
+        public String toString() {
+            return code + (body != null ? " " + body : "");
+        }
+    }
+
+    /** Registers a new room, the response's site id is the room's id */
+    public CompletableFuture<Response> register(String body) {
+        return submit(HTTP_METHOD.POST, null, utf8(body));
+    }
+
+    public CompletableFuture<Response> register(ByteBuffer body) {
+        return submit(HTTP_METHOD.POST, null, body);
+    }
+
+    /** Replaces the registration of an existing room */
+    public CompletableFuture<Response> update(String roomid, String body) {
+        return submit(HTTP_METHOD.PUT, requireRoomid(roomid), utf8(body));
+    }
+
+    public CompletableFuture<Response> update(String roomid, ByteBuffer body) {
+        return submit(HTTP_METHOD.PUT, requireRoomid(roomid), body);
+    }
+
+    public CompletableFuture<Response> get(String roomid) {
+        return submit(HTTP_METHOD.GET, requireRoomid(roomid), null);
+    }
+
+    public CompletableFuture<Response> delete(String roomid) {
+        return submit(HTTP_METHOD.DELETE, requireRoomid(roomid), null);
+    }
+
+    /**
+     * Shuts down the executor, if the client created it, once the requests
+     * already submitted have finished.
+     */
+    @Override
+    public void close() {
+        ExecutorService own = ownExecutor;
+        if(own != null) {
+            own.shutdown();
+        }
+    }
+
+    private static ByteBuffer utf8(String body) {
+        return (body != null) ? ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)) : null;
+    }
+
+    private static String requireRoomid(String roomid) {
+        if(roomid == null || roomid.isEmpty()) {
+            throw new IllegalArgumentException("A room id is needed");
+        }
+        return roomid;
+    }
+
+    private CompletableFuture<Response> submit(HTTP_METHOD method, String roomid, ByteBuffer body) {
+        Exchange exchange = new Exchange(method, roomid, body);
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            executor().execute(() -> {
+                try {
+                    future.complete(new Response(exchange, execute(exchange)));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            //most likely the client has been closed
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private Executor executor() {
+        if(executor != null) {
+            return executor;
+        }
+        ExecutorService own = ownExecutor;
+        if(own == null) {
+            synchronized(this) {
+                own = ownExecutor;
+                if(own == null) {
+                    own = Workers.newTaskPool(DEFAULT_THREADS, "regutil-client");
+                    ownExecutor = own;
+                }
+            }
+        }
+        return own;
+    }
+
+    /**
+     * The state of a single request as it is sent, along with where to log
+     * it. Only ever used by one thread at a time.
+     */
+    static final class Exchange {
+        final HTTP_METHOD method;
+        final String roomid;
+        ByteBuffer body;
+        //whether the body has been compressed
+        boolean encoded;
+        RequestSigner.Signature signature;
+        PrintStream log = DISCARD;
+        final long[] timings;
+        String response;
+        String retryAfter;
+        int attempts;
+        //the response we already have for a GET, and the validators for the one we get back
+        ResponseCache.Entry cached;
+        String etag;
+        String lastModified;
+
+        Exchange(HTTP_METHOD method, String roomid, ByteBuffer body) {
+            this(method, roomid, body, new long[Metrics.Phase.values().length]);
+            Arrays.fill(timings, -1);
+        }
+
+        /**
+         * @param timings where to record the time spent in each phase, which
+         * may already hold the time taken to read the body
+         */
+        Exchange(HTTP_METHOD method, String roomid, ByteBuffer body, long[] timings) {
+            this.method = method;
+            this.roomid = roomid;
+            this.body = (body != null) ? body : EMPTY_BODY;
+            this.timings = timings;
+        }
+    }
+
+    /**
+     * Sends a request, retrying it as the retry policy allows, and waits for
+     * the response. With a cache, a GET may be answered from the cache instead.
+     * @return the HTTP response code from the server, 200 for a cached response
+     */
+    int execute(Exchange exchange) throws Exception {
+        if(url == null) {
+            throw new IllegalStateException("The map service URL has not been set");
+        }
+        //a plain string rather than a map of lambdas, bootstrapping those costs more than the request on a cold JVM
+        String target = exchange.method.equals(HTTP_METHOD.POST) ? url : url + "/" + exchange.roomid;
+        return (cache != null) ? sendCached(exchange, target) : send(exchange, target);
+    }
+
+    /**
+     * Answers a GET from the cache if the response is younger than the TTL,
+     * otherwise asks the map service whether the cached response has changed.
+     * Successful updates and deletes remove the room's cached response.
+     */
+    private int sendCached(Exchange exchange, String target) throws Exception {
+        if(!exchange.method.equals(HTTP_METHOD.GET)) {
+            int code = send(exchange, target);
+            if(RegistrationUtility.exitCode(code) == 0 && !exchange.method.equals(HTTP_METHOD.POST)) {
+                cache.remove(target);
+            }
+            return code;
+        }
+        ResponseCache.Entry cached = cache.get(target);
+        if(cached != null && cache.isFresh(cached)) {
+            cache.recordHit();
+            exchange.log.println("Using the cached response for " + target + ", stored "
+                                 + (System.currentTimeMillis() - cached.stored) / 1000 + "s ago");
+            return fromCache(exchange, cached);
+        }
+        if(cache.isOffline()) {
+            cache.recordMiss();
+            exchange.log.println("Offline, and there is no cached response for " + target + " within the TTL");
+            return HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+        }
+        exchange.cached = cached;
+        int code = send(exchange, target);
+        if(code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            cache.recordRevalidated();
+            cache.refresh(cached);
+            exchange.log.println("Not modified, using the cached response");
+            return fromCache(exchange, cached);
+        }
+        cache.recordMiss();
+        if(code == HttpURLConnection.HTTP_OK && exchange.response != null) {
+            cache.put(target, exchange.etag, exchange.lastModified, exchange.response);
+        } else if(code == HttpURLConnection.HTTP_NOT_FOUND) {
+            cache.remove(target);
+        }
+        return code;
+    }
+
+    private static int fromCache(Exchange exchange, ResponseCache.Entry cached) {
+        exchange.response = cached.body;
+        exchange.log.println(cached.body);
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private int send(Exchange exchange, String target) throws Exception {
+        for(int attempt = 0; ; attempt++) {
+            long ticket = (limiter != null) ? limiter.acquire() : 0;
+            int code;
+            try {
+                code = attempt(exchange, target);
+            } catch (IOException e) {
+                if(limiter != null) {
+                    limiter.cancel();
+                }
+                if(!retryPolicy.shouldRetry(exchange.method, e, attempt)) {
+                    throw e;
+                }
+                exchange.log.println("Request failed : " + e);
+                backoff(exchange, attempt, null);
+                continue;
+            } catch (Exception e) {
+                if(limiter != null) {
+                    limiter.cancel();
+                }
+                throw e;
+            }
+            if(limiter != null) {
+                limiter.release(ticket, RetryPolicy.isOverloaded(code));
+            }
+            if(!retryPolicy.shouldRetry(exchange.method, code, attempt)) {
+                return code;
+            }
+            backoff(exchange, attempt, exchange.retryAfter);
+        }
+    }
+
+    private int attempt(Exchange exchange, String target) throws Exception {
+        exchange.attempts++;
+        //the file was read before we got here, everything else is per request
+        Arrays.fill(exchange.timings, Metrics.Phase.SIGNING.ordinal(), exchange.timings.length, -1);
+        long start = System.nanoTime();
+        try {
+            int code = readResponse(open(exchange, target), exchange);
+            if(metrics != null) {
+                metrics.record(exchange.method, code, exchange.timings, System.nanoTime() - start, exchange.body.remaining());
+            }
+            exchange.log.println("Timings (ms) : " + describeTimings(exchange.timings));
+            return code;
+        } catch (Exception e) {
+            if(metrics != null) {
+                metrics.recordFailure(exchange.method, e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a GET whose response is too large to read into a String, such as
+     * a listing of every site, retrying and limiting it as any other request.
+     * The caller reads the response and closes its stream, or disconnects.
+     * @return the connection, once it has a response that won't be retried
+     */
+    HttpURLConnection stream(String target, PrintStream log) throws Exception {
+        for(int attempt = 0; ; attempt++) {
+            long ticket = (limiter != null) ? limiter.acquire() : 0;
+            HttpURLConnection con;
+            int code;
+            try {
+                con = transport.open(target);
+                con.setRequestMethod(HTTP_METHOD.GET.name());
+                con.setRequestProperty("Accept", "application/json");
+                code = con.getResponseCode();
+            } catch (IOException e) {
+                if(limiter != null) {
+                    limiter.cancel();
+                }
+                if(!retryPolicy.shouldRetry(HTTP_METHOD.GET, e, attempt)) {
+                    throw e;
+                }
+                log.println("Request failed : " + e);
+                pause(log, attempt, null);
+                continue;
+            }
+            if(limiter != null) {
+                limiter.release(ticket, RetryPolicy.isOverloaded(code));
+            }
+            if(!retryPolicy.shouldRetry(HTTP_METHOD.GET, code, attempt)) {
+                return con;
+            }
+            String retryAfter = con.getHeaderField("Retry-After");
+            log.println("The server responded with " + code);
+            con.disconnect();
+            pause(log, attempt, retryAfter);
+        }
+    }
+
+    private void backoff(Exchange exchange, int attempt, String retryAfter) throws InterruptedException {
+        pause(exchange.log, attempt, retryAfter);
+        //a fresh date, in case the wait took us outside the server's clock skew
+        exchange.signature = null;
+    }
+
+    private void pause(PrintStream log, int attempt, String retryAfter) throws InterruptedException {
+        long delay = retryPolicy.delayMillis(attempt, retryAfter);
+        log.println("Retrying in " + delay + "ms (retry " + (attempt + 1) + " of " + retryPolicy.getRetries() + ")");
+        if(metrics != null) {
+            metrics.recordRetry();
+        }
+        Thread.sleep(delay);
+    }
+
+    private static String describeTimings(long[] timings) {
+        StringBuilder sb = new StringBuilder();
+        for(Metrics.Phase phase : Metrics.Phase.values()) {
+            if(timings[phase.ordinal()] >= 0) {
+                //not String.format, which loads the locale data on a cold start
+                long micros = timings[phase.ordinal()] / 1000;
+                sb.append(sb.length() > 0 ? ", " : "").append(phase.label).append(" ")
+                  .append(micros / 1000).append('.').append(String.valueOf(1000 + micros % 1000).substring(1));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void time(Exchange exchange, Metrics.Phase phase, long start) {
+        exchange.timings[phase.ordinal()] = System.nanoTime() - start;
+    }
+
+    /**
+     * Generates the HMAC signature headers for the request's method, room and
+     * body, compressing the body first if we compress bodies.
+     */
+    void sign(Exchange exchange) throws IOException {
+        if(signer == null) {
+            throw new IllegalStateException("Both an id and a secret are needed to sign requests");
+        }
+        long start = System.nanoTime();
+        encode(exchange);
+        String baseuri = (exchange.roomid != null) ? SITES_PATH + "/" + exchange.roomid : SITES_PATH;
+        exchange.signature = signer.sign(exchange.method, baseuri, exchange.body);
+        time(exchange, Metrics.Phase.SIGNING, start);
+    }
+
+    /**
+     * Compresses the body, if we compress bodies, so it is signed as it is sent.
+     */
+    private void encode(Exchange exchange) throws IOException {
+        if(gzip && !exchange.encoded && !exchange.method.equals(HTTP_METHOD.GET) && exchange.body.hasRemaining()) {
+            exchange.body = BodyReader.gzip(exchange.body);
+            exchange.encoded = true;
+        }
+    }
+
+    private HttpURLConnection open(Exchange exchange, String target) throws Exception {
+        exchange.log.println("Connecting to GameOn! at " + target + "\n");
+        HttpURLConnection con = prepare(transport.open(target), exchange);
+        if(exchange.method.equals(HTTP_METHOD.GET)) {
+            long start = System.nanoTime();
+            con.connect();
+            time(exchange, Metrics.Phase.CONNECT, start);
+        }
+        return con;
+    }
+
+    /**
+     * Sets the method and headers on a connection and, for anything other
+     * than a GET, signs the request and writes the body.
+     */
+    HttpURLConnection prepare(HttpURLConnection con, Exchange exchange) throws Exception {
+        PrintStream out = exchange.log;
+        out.println("Executing " + exchange.method.toString());
+        if (exchange.roomid != null){
+            out.println("For roomid: " + exchange.roomid);
+        }
+
+        con.setRequestMethod(exchange.method.name());
+        if(gzip) {
+            con.setRequestProperty("Accept-Encoding", "gzip");
+        }
+
+        if(!exchange.method.equals(HTTP_METHOD.GET)) {
+            con.setDoInput(true);
+            con.setDoOutput(true);
+            con.setRequestProperty("Content-Type", "application/json;");
+            con.setRequestProperty("Accept", "application/json,text/plain");
+
+            //all methods except GET need to be authenticated
+            if(exchange.signature == null) {
+                sign(exchange);
+            } else {
+                //signed beforehand, compressing again gives the same bytes
+                encode(exchange);
+            }
+            if(exchange.encoded) {
+                con.setRequestProperty("Content-Encoding", "gzip");
+            }
+            exchange.signature.applyTo(con);
+            for(int i = 0; i < RequestSigner.HEADERS.length; i++) {
+                out.println(RequestSigner.HEADERS[i] + ":" + exchange.signature.value(i));
+            }
+
+            ByteBuffer body = exchange.body;
+            if(body.remaining() >= BodyReader.MAP_THRESHOLD) {
+                //don't let the connection buffer a large body just to work out its length
+                con.setFixedLengthStreamingMode(body.remaining());
+            }
+            //opening the stream is what connects, and for HTTPS does the handshake
+            long start = System.nanoTime();
+            try (OutputStream os = con.getOutputStream()) {
+                time(exchange, Metrics.Phase.CONNECT, start);
+                start = System.nanoTime();
+                BodyReader.write(body, os);
+            }
+            time(exchange, Metrics.Phase.BODY_WRITE, start);
+        } else {
+            con.setDoInput(true);
+            ResponseCache.Entry cached = exchange.cached;
+            if(cached != null && cached.etag != null) {
+                con.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if(cached != null && cached.lastModified != null) {
+                con.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
+        return con;
+    }
+
+    private int readResponse(HttpURLConnection con, Exchange exchange) throws Exception {
+        PrintStream out = exchange.log;
+        exchange.response = null;
+        long start = System.nanoTime();
+        int resCode = con.getResponseCode();
+        time(exchange, Metrics.Phase.FIRST_BYTE, start);
+        start = System.nanoTime();
+        int exitCode = RegistrationUtility.exitCode(resCode);
+        exchange.retryAfter = (exitCode != 0) ? con.getHeaderField("Retry-After") : null;
+        if(exitCode == 0 && exchange.method.equals(HTTP_METHOD.GET)) {
+            exchange.etag = con.getHeaderField("ETag");
+            exchange.lastModified = con.getHeaderField("Last-Modified");
+        }
+        out.println("Response from server. (code = " + resCode + ")");
+        try {
+            InputStream stream =  (exitCode == 0) ? con.getInputStream() : con.getErrorStream();
+            if (stream != null && "gzip".equalsIgnoreCase(con.getContentEncoding())) {
+                //decompressed as it is read
+                stream = new GZIPInputStream(stream, 8192);
+            }
+            if (stream != null) {
+                try (BufferedReader buffer = new BufferedReader(
+                                                                new InputStreamReader(stream, "UTF-8"))) {
+                    exchange.response = buffer.lines().collect(Collectors.joining("\n"));
+                    out.println(exchange.response);
+                }
+            }
+        } catch (IOException e) {
+            out.println("The server did not supply any additional information.");
+            // the connection can't be reused if the response wasn't read to the end
+            con.disconnect();
+        }
+        time(exchange, Metrics.Phase.RESPONSE_READ, start);
+        return resCode;
+    }
+}
@@ -15,27 +15,19 @@
  *******************************************************************************/
 package org.gameontext.util.reg;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.ws.rs.core.MultivaluedHashMap;
-import javax.ws.rs.core.MultivaluedMap;
 
-import org.gameontext.signed.SignedRequestHmac;
-import org.gameontext.signed.SignedRequestMap;
-
-import javax.net.ssl.SSLSession;
 
 public class RegistrationUtility {
 
@@ -43,15 +35,66 @@ public class RegistrationUtility {
 
     private final Map<String, String> cmdargs = new HashMap<String, String>();
     private String roomid = null;
-    private String body = "";
+    private ByteBuffer body = EMPTY_BODY;
     private String url = null;
     private HTTP_METHOD method = HTTP_METHOD.POST;
+    private PrintStream out = System.out;
+    private Transport transport = null;
+    private RequestSigner signer = null;
+    private RequestSigner.Signature signature = null;
+    private String response = null;
+    private Metrics metrics = null;
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private AdaptiveLimiter limiter = null;
+    private ResponseCache cache = null;
+    private RegistrationClient client = null;
+    private final long[] timings = new long[Metrics.Phase.values().length];
 
     private static final String HTTP_METHOD_ARG = "-m";
     private static final String GAMEON_ID = "-i";
     private static final String GAMEON_SECRET = "-s";
     private static final String MAP_SVC = "-u";
     private static final String ROOM_ID_ARG = "-r";
+    private static final String BULK_ARG = "--bulk";
+    private static final String CONCURRENCY_ARG = "--concurrency";
+    private static final String TRANSPORT_ARG = "--transport";
+    private static final String TRUST_ALL_ARG = "--trust-all";
+    private static final String METRICS_ARG = "--metrics";
+    private static final String RETRIES_ARG = "--retries";
+    private static final String RETRY_DELAY_ARG = "--retry-delay";
+    private static final String STUB_CAPACITY_ARG = "--stub-capacity";
+    private static final String WATCH_ARG = "--watch";
+    private static final String DELETE_REMOVED_ARG = "--delete";
+    private static final String DEBOUNCE_ARG = "--debounce";
+    private static final String EXPORT_ARG = "--export";
+    private static final String RESTORE_ARG = "--restore";
+    private static final String OWNER_ARG = "--owner";
+    private static final String DRY_RUN_ARG = "--dry-run";
+    private static final String JOURNAL_ARG = "--journal";
+    private static final String RESUME_ARG = "--resume";
+    private static final String CACHE_ARG = "--cache";
+    private static final String CACHE_SIZE_ARG = "--cache-size";
+    private static final String CACHE_TTL_ARG = "--cache-ttl";
+    private static final String OFFLINE_ARG = "--offline";
+    private static final String GZIP_ARG = "--gzip";
+    private static final String ENDPOINTS_ARG = "--endpoints";
+    private static final String TEAMS_ARG = "--teams";
+    private static final String RAW_ARG = "--raw";
+    private static final String NO_VALIDATE_ARG = "--no-validate";
+    private static final String STUB_ARG = "--stub";
+    private static final String LOADTEST_ARG = "--loadtest";
+    private static final String RATE_ARG = "--rate";
+    private static final String DURATION_ARG = "--duration";
+    private static final String REQUESTS_ARG = "--requests";
+    private static final String MIX_ARG = "--mix";
+    private static final String SYNC_ARG = "--sync";
+    private static final String SYNC_INDEX_ARG = "--index";
+    private static final String VERIFY_ARG = "--verify";
+    private static final String STDIN_PATH = "-";
+
+    private static final ByteBuffer EMPTY_BODY = ByteBuffer.wrap(new byte[0]);
+
+    private static final String DEFAULT_MAP_SVC = RegistrationClient.DEFAULT_URL;
 
 
     @FunctionalInterface
@@ -59,21 +102,123 @@ public class RegistrationUtility {
         R get() throws Exception;
     }
 
+    public RegistrationUtility() {
+        Arrays.fill(timings, -1);
+    }
+
     public static void main(String[] args) {
         try {
             RegistrationUtility util = new RegistrationUtility();
             util.parseArgs(args, util);
 
-            Map<String,CheckedSupplier <Integer> > actions = new HashMap<>();
-            actions.put(HTTP_METHOD.POST.name(), () -> {return util.getJSONResponse(util.sendToServer(util.getUrl()));});
-            actions.put(HTTP_METHOD.PUT.name(), () -> {return util.getJSONResponse(util.sendToServer(util.getUrl() + "/" + util.getRoomid()));});
-            actions.put(HTTP_METHOD.DELETE.name(), () -> {return util.getJSONResponse(util.sendToServer(util.getUrl() + "/" + util.getRoomid()));});
-            actions.put(HTTP_METHOD.GET.name(), () -> {return util.getJSONResponse(util.sendToServer(util.getUrl() + "/" + util.getRoomid()));});
+            //keep stdout for the result lines when streaming
+            PrintStream status = STDIN_PATH.equals(args[args.length-1]) ? System.err : System.out;
+            List<FairScheduler.Team> teams = util.cmdargs.containsKey(TEAMS_ARG) ? FairScheduler.load(args[args.length-1]) : null;
+            StubMapService stub = null;
+            if(util.cmdargs.containsKey(STUB_ARG)) {
+                String port = util.cmdargs.get(STUB_ARG);
+                if(teams != null) {
+                    stub = new StubMapService(teams.get(0).id, teams.get(0).secret, (port != null) ? Integer.parseInt(port) : 0);
+                    for(FairScheduler.Team team : teams) {
+                        stub.addCredentials(team.id, team.secret);
+                    }
+                } else {
+                    stub = new StubMapService(util.getId(), util.getSecret(), (port != null) ? Integer.parseInt(port) : 0);
+                }
+                if(util.cmdargs.get(STUB_CAPACITY_ARG) != null) {
+                    stub.setCapacity(Integer.parseInt(util.cmdargs.get(STUB_CAPACITY_ARG)));
+                }
+                stub.start();
+                util.setUrl(stub.getUrl());
+                status.println("Started stub map service at " + stub.getUrl() + "\n");
+            }
 
-            int resCode = actions.get(util.getMethod().name()).get();
-            //convert the HTTP response code into a system exit for build systems
-            int exitCode = (resCode >= HttpURLConnection.HTTP_OK) && (resCode <= HttpURLConnection.HTTP_NO_CONTENT) ? 0 : resCode;
-            System.out.println("System exit code : " + exitCode);
+            int exitCode;
+            if(util.cmdargs.containsKey(LOADTEST_ARG)) {
+                String mix = util.cmdargs.get(MIX_ARG);
+                LoadTest test = new LoadTest(util, util.getConcurrency(),
+                                             util.cmdargs.containsKey(RATE_ARG) ? Double.parseDouble(util.cmdargs.get(RATE_ARG)) : 0,
+                                             util.cmdargs.containsKey(DURATION_ARG) ? Long.parseLong(util.cmdargs.get(DURATION_ARG)) : LoadTest.DEFAULT_DURATION_SECS,
+                                             util.cmdargs.containsKey(REQUESTS_ARG) ? Long.parseLong(util.cmdargs.get(REQUESTS_ARG)) : 0,
+                                             LoadTest.parseMix((mix != null) ? mix : util.getMethod().name()));
+                exitCode = test.run();
+            } else if(STDIN_PATH.equals(args[args.length-1])) {
+                util.setLimiter(new AdaptiveLimiter(util.getConcurrency()));
+                NdjsonPipeline pipeline = new NdjsonPipeline(util, util.getConcurrency());
+                exitCode = pipeline.run(System.in, System.out);
+            } else if(teams != null) {
+                exitCode = new FairScheduler(util, teams, util.getConcurrency()).run();
+            } else if(util.cmdargs.containsKey(EXPORT_ARG)) {
+                String owner = util.cmdargs.get(OWNER_ARG);
+                util.setLimiter(new AdaptiveLimiter(util.getConcurrency()));
+                SiteBackup backup = new SiteBackup(util, util.getConcurrency());
+                exitCode = backup.export((owner != null) ? owner : util.getId(), Paths.get(args[args.length-1]));
+            } else if(util.cmdargs.containsKey(RESTORE_ARG)) {
+                util.setLimiter(new AdaptiveLimiter(util.getConcurrency()));
+                SiteBackup backup = new SiteBackup(util, util.getConcurrency());
+                exitCode = backup.restore(Paths.get(args[args.length-1]));
+            } else if(util.cmdargs.containsKey(WATCH_ARG)) {
+                File directory = new File(args[args.length-1]);
+                String index = util.cmdargs.get(SYNC_INDEX_ARG);
+                String debounce = util.cmdargs.get(DEBOUNCE_ARG);
+                util.setLimiter(new AdaptiveLimiter(util.getConcurrency()));
+                WatchDaemon daemon = new WatchDaemon(util, util.getConcurrency(), directory,
+                                                     (index != null) ? Paths.get(index) : directory.toPath().resolve(SyncIndex.DEFAULT_NAME),
+                                                     util.cmdargs.containsKey(DELETE_REMOVED_ARG),
+                                                     (debounce != null) ? Long.parseLong(debounce) : WatchDaemon.DEFAULT_DEBOUNCE_MILLIS);
+                exitCode = daemon.run();
+            } else if(util.cmdargs.containsKey(SYNC_ARG)) {
+                File directory = new File(args[args.length-1]);
+                String index = util.cmdargs.get(SYNC_INDEX_ARG);
+                util.setLimiter(new AdaptiveLimiter(util.getConcurrency()));
+                DifferentialSync sync = new DifferentialSync(util, util.getConcurrency());
+                exitCode = sync.run(directory, (index != null) ? Paths.get(index) : directory.toPath().resolve(SyncIndex.DEFAULT_NAME),
+                                    util.cmdargs.containsKey(VERIFY_ARG));
+            } else if(util.cmdargs.containsKey(BULK_ARG)) {
+                util.setLimiter(new AdaptiveLimiter(util.getConcurrency()));
+                BulkRegistration bulk = new BulkRegistration(util, util.getConcurrency());
+                List<BulkRegistration.Entry> entries = BulkRegistration.load(args[args.length-1], util.getMethod());
+                //every file is checked before anything is sent
+                Map<String, String> hashes = util.isValidating() ? bulk.validate(entries) : new HashMap<>();
+                if(hashes == null) {
+                    exitCode = 1;
+                } else {
+                    BatchPlanner.Plan plan = new BatchPlanner(hashes).plan(entries);
+                    plan.report(util.getOutput(), util.cmdargs.containsKey(DRY_RUN_ARG));
+                    if(util.cmdargs.containsKey(DRY_RUN_ARG)) {
+                        exitCode = 0;
+                    } else if(util.cmdargs.containsKey(ENDPOINTS_ARG)) {
+                        exitCode = new FanOut(util, FanOut.load(util.cmdargs.get(ENDPOINTS_ARG)), util.getConcurrency()).run(plan, bulk);
+                    } else if(util.cmdargs.containsKey(JOURNAL_ARG)) {
+                        try (Journal journal = Journal.open(Paths.get(util.cmdargs.get(JOURNAL_ARG)), util.cmdargs.containsKey(RESUME_ARG))) {
+                            bulk.setJournal(journal);
+                            exitCode = bulk.run(plan);
+                            status.println("Journal : " + journal.describe());
+                        }
+                    } else {
+                        exitCode = bulk.run(plan);
+                    }
+                }
+            } else if(util.cmdargs.containsKey(ENDPOINTS_ARG)) {
+                exitCode = new FanOut(util, FanOut.load(util.cmdargs.get(ENDPOINTS_ARG)), util.getConcurrency()).run();
+            } else {
+                //convert the HTTP response code into a system exit for build systems
+                exitCode = exitCode(util.execute());
+            }
+            if(stub != null) {
+                stub.stop();
+            }
+            if(util.limiter != null && util.limiter.getDecreases() > 0) {
+                status.println("Concurrency limit : " + util.limiter.describe());
+            }
+            if(util.cache != null) {
+                status.println("Response cache : " + util.cache.describe());
+            }
+            if(util.metrics != null) {
+                util.metrics.write(Paths.get(util.cmdargs.get(METRICS_ARG)));
+                status.println("Metrics written to " + util.cmdargs.get(METRICS_ARG));
+            }
+            status.println("System exit code : " + exitCode);
             System.exit(exitCode);
         } catch (Exception e) {
             // Don't redisplay help text if JUnit test harness
@@ -86,9 +231,122 @@ public class RegistrationUtility {
         }
     }
 
-    private void parseArgs(String[] args, RegistrationUtility util) throws Exception {
+    /**
+     * Runs the configured method against the map service.
+     * @return the HTTP response code from the server
+     */
+    protected int execute() throws Exception {
+        RegistrationClient.Exchange exchange = exchange();
+        try {
+            return getClient().execute(exchange);
+        } finally {
+            response = exchange.response;
+            signature = exchange.signature;
+        }
+    }
+
+    /**
+     * How long the last request spent in each phase, in nanoseconds, indexed
+     * by {@link Metrics.Phase} ordinal. Phases that weren't timed are negative.
+     */
+    long[] getTimings() {
+        return timings.clone();
+    }
+
+    private void time(Metrics.Phase phase, long start) {
+        timings[phase.ordinal()] = System.nanoTime() - start;
+    }
+
+    /**
+     * The client that sends this utility's requests, built from its current
+     * settings and shared with any utilities created by {@link #forRequest(HTTP_METHOD, String)}.
+     */
+    RegistrationClient getClient() {
+        if(client == null) {
+            client = RegistrationClient.builder(null, null)
+                                       .url(getUrl())
+                                       .transport(getTransport())
+                                       .signer(hasCredentials() ? getSigner() : null)
+                                       .retryPolicy(retryPolicy)
+                                       .limiter(limiter)
+                                       .metrics(metrics)
+                                       .cache(cache)
+                                       .gzip(cmdargs.containsKey(GZIP_ARG))
+                                       .build();
+        }
+        return client;
+    }
+
+    /**
+     * The limit on requests in flight, if there is one.
+     */
+    AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    private void setLimiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+        this.client = null;
+    }
+
+    //the request as it stands, logging to our output and timing into our timings
+    private RegistrationClient.Exchange exchange() {
+        RegistrationClient.Exchange exchange = new RegistrationClient.Exchange(method, roomid, body, timings);
+        exchange.signature = signature;
+        exchange.log = out;
+        return exchange;
+    }
+
+    /**
+     * Creates a utility for a single request that shares this one's
+     * credentials and map service URL.
+     */
+    RegistrationUtility forRequest(HTTP_METHOD method, String roomid) {
+        RegistrationUtility item = new RegistrationUtility();
+        item.cmdargs.putAll(cmdargs);
+        item.setUrl(getUrl());
+        item.setTransport(getTransport());
+        item.signer = hasCredentials() ? getSigner() : null;
+        item.metrics = metrics;
+        item.retryPolicy = retryPolicy;
+        item.limiter = limiter;
+        item.client = getClient();
+        item.setMethod(method);
+        item.setRoomid(roomid);
+        return item;
+    }
+
+    /**
+     * Creates a utility for the same request to another map service, with
+     * its own credentials and its own limit on requests in flight.
+     */
+    RegistrationUtility forEndpoint(FanOut.Endpoint endpoint) {
+        RegistrationUtility item = forCredentials(endpoint.id, endpoint.secret);
+        item.setUrl(endpoint.url);
+        item.signer = endpoint.signer;
+        item.setBodyBytes(body);
+        return item;
+    }
+
+    /**
+     * Creates a utility for the same map service with another id and secret,
+     * sharing its connections but with its own limit on requests in flight.
+     */
+    RegistrationUtility forCredentials(String id, String secret) {
+        RegistrationUtility item = forRequest(method, roomid);
+        item.setId(id);
+        item.setSecret(secret);
+        item.setLimiter(new AdaptiveLimiter(getConcurrency()));
+        return item;
+    }
+
+    //convert a HTTP response code into a process exit code, 200 - 204 is success
+    static int exitCode(int resCode) {
+        return (resCode >= HttpURLConnection.HTTP_OK) && (resCode <= HttpURLConnection.HTTP_NO_CONTENT) ? 0 : resCode;
+    }
+
+    void parseArgs(String[] args, RegistrationUtility util) throws Exception {
 
-        util.setUrl(cmdargs.containsKey(MAP_SVC) ? cmdargs.get(MAP_SVC) : "https://game-on.org/map/v1/sites");
         if(args.length == 0) {
             printHelp();
             System.exit(1);
@@ -107,9 +365,60 @@ public class RegistrationUtility {
                 System.out.println("Warning : duplicate argument specified - " + key);
             }
         }
-        if(!cmdargs.containsKey(GAMEON_ID) || !cmdargs.containsKey(GAMEON_SECRET)) {
+        if(cmdargs.containsKey(ENDPOINTS_ARG)) {
+            //the endpoints file has the credentials for each map service
+            if(cmdargs.get(ENDPOINTS_ARG) == null) {
+                throw new IllegalArgumentException("Specify the endpoints file with " + ENDPOINTS_ARG + "=<file>");
+            }
+            if(cmdargs.containsKey(SYNC_ARG) || cmdargs.containsKey(WATCH_ARG) || cmdargs.containsKey(EXPORT_ARG) || cmdargs.containsKey(RESTORE_ARG)
+                    || cmdargs.containsKey(LOADTEST_ARG) || cmdargs.containsKey(TEAMS_ARG) || STDIN_PATH.equals(args[args.length-1])) {
+                throw new IllegalArgumentException(ENDPOINTS_ARG + " can only be used for a single request or with " + BULK_ARG);
+            }
+        } else if(cmdargs.containsKey(TEAMS_ARG)) {
+            //the teams file has the credentials for each team
+            if(cmdargs.containsKey(BULK_ARG) || cmdargs.containsKey(SYNC_ARG) || cmdargs.containsKey(WATCH_ARG) || cmdargs.containsKey(EXPORT_ARG)
+                    || cmdargs.containsKey(RESTORE_ARG) || cmdargs.containsKey(LOADTEST_ARG) || STDIN_PATH.equals(args[args.length-1])) {
+                throw new IllegalArgumentException(TEAMS_ARG + " sends each team's batch itself, and can't be combined with another mode");
+            }
+            if(cmdargs.containsKey(DRY_RUN_ARG) || cmdargs.containsKey(JOURNAL_ARG)) {
+                throw new IllegalArgumentException(DRY_RUN_ARG + " and " + JOURNAL_ARG + " are only for a single " + BULK_ARG + " batch");
+            }
+        } else if(!cmdargs.containsKey(GAMEON_ID) || !cmdargs.containsKey(GAMEON_SECRET)) {
             throw new IllegalArgumentException("Missing required options");
         }
+        if(cmdargs.containsKey(JOURNAL_ARG) || cmdargs.containsKey(RESUME_ARG)) {
+            if(cmdargs.get(JOURNAL_ARG) == null) {
+                throw new IllegalArgumentException("Specify the journal file with " + JOURNAL_ARG + "=<file>");
+            }
+            if(!cmdargs.containsKey(BULK_ARG) || cmdargs.containsKey(ENDPOINTS_ARG)) {
+                throw new IllegalArgumentException(JOURNAL_ARG + " can only be used with " + BULK_ARG + " for a single map service");
+            }
+            Journal.check(Paths.get(cmdargs.get(JOURNAL_ARG)), cmdargs.containsKey(RESUME_ARG));
+        }
+        util.setUrl(cmdargs.containsKey(MAP_SVC) ? cmdargs.get(MAP_SVC) : DEFAULT_MAP_SVC);
+        util.setTransport(Transport.forName(cmdargs.get(TRANSPORT_ARG), cmdargs.containsKey(TRUST_ALL_ARG)));
+        //a load test should see the pushback, not hide it
+        int retries = cmdargs.containsKey(LOADTEST_ARG) ? 0 : RetryPolicy.DEFAULT_RETRIES;
+        if(cmdargs.get(RETRIES_ARG) != null) {
+            retries = Integer.parseInt(cmdargs.get(RETRIES_ARG));
+        }
+        String retryDelay = cmdargs.get(RETRY_DELAY_ARG);
+        util.retryPolicy = new RetryPolicy(retries, (retryDelay != null) ? Long.parseLong(retryDelay) : RetryPolicy.DEFAULT_BASE_DELAY_MILLIS);
+        if(cmdargs.containsKey(METRICS_ARG)) {
+            if(cmdargs.get(METRICS_ARG) == null) {
+                throw new IllegalArgumentException("Specify the file to write metrics to with " + METRICS_ARG + "=<file>");
+            }
+            util.metrics = new Metrics();
+        }
+        if(cmdargs.containsKey(CACHE_ARG) || cmdargs.containsKey(OFFLINE_ARG)) {
+            String directory = cmdargs.get(CACHE_ARG);
+            String size = cmdargs.get(CACHE_SIZE_ARG);
+            String ttl = cmdargs.get(CACHE_TTL_ARG);
+            util.cache = new ResponseCache((directory != null) ? Paths.get(directory) : ResponseCache.defaultDirectory(),
+                                           (size != null) ? Integer.parseInt(size) : ResponseCache.DEFAULT_MAX_ENTRIES,
+                                           (ttl != null) ? Long.parseLong(ttl) * 1000 : cmdargs.containsKey(OFFLINE_ARG) ? Long.MAX_VALUE : 0,
+                                           cmdargs.containsKey(OFFLINE_ARG));
+        }
 
         if(cmdargs.containsKey(HTTP_METHOD_ARG)) {
             util.setMethod(HTTP_METHOD.valueOf(cmdargs.get(HTTP_METHOD_ARG)));
@@ -117,6 +426,19 @@ public class RegistrationUtility {
             util.setMethod(HTTP_METHOD.POST);
         }
 
+        if(cmdargs.containsKey(BULK_ARG) || cmdargs.containsKey(TEAMS_ARG) || cmdargs.containsKey(SYNC_ARG) || cmdargs.containsKey(WATCH_ARG)
+                || cmdargs.containsKey(EXPORT_ARG) || cmdargs.containsKey(RESTORE_ARG) || STDIN_PATH.equals(args[args.length-1])) {
+            //the method and room id are supplied per entry by the manifest or record
+            return;
+        }
+
+        if(cmdargs.containsKey(LOADTEST_ARG)) {
+            //room ids come from -r, or the rooms registered during the test
+            util.setRoomid(cmdargs.get(ROOM_ID_ARG));
+            util.loadBody(args[args.length-1]);
+            return;
+        }
+
         if (util.getMethod() != HTTP_METHOD.POST && !cmdargs.containsKey(ROOM_ID_ARG) ) {
             throw new IllegalArgumentException("When specifying an update with PUT, DELETE or GET, you need to supply the room id with -r");
         }
@@ -126,8 +448,7 @@ public class RegistrationUtility {
             util.setRoomid(cmdargs.get(ROOM_ID_ARG));
             //allow to fall through to read file contents for update
         case POST:
-            String path = args[args.length-1];
-            util.setBody(readFile(path));
+            util.loadBody(args[args.length-1]);
             break;
         default:
             util.setRoomid(cmdargs.get(ROOM_ID_ARG));
@@ -136,18 +457,9 @@ public class RegistrationUtility {
     }
 
     protected static String readFile(String path) throws Exception {
-        File file = new File(path);
-        if(!file.exists() || !file.isFile())  {
-            //perhaps its a resource
-            file = new File(ClassLoader.getSystemResource(path).getFile());
-        }
-
-        if(!file.exists() || !file.isFile())  {
-            throw new IllegalArgumentException("Invalid path for registration JSON file specified : " + path);
-        }
-
         // to retain parity with previous Java 7 code, but do we really need a line sepataor for JSON?
-        return String.join(System.getProperty("line.separator"), Files.readAllLines(file.toPath()));
+        ByteBuffer contents = BodyReader.read(path, false);
+        return StandardCharsets.UTF_8.decode(contents).toString();
     }
 
     private static void printHelp() {
@@ -160,6 +472,27 @@ public class RegistrationUtility {
         System.out.println("\t" + HTTP_METHOD_ARG + "=<HTTP method, defaults to POST if not specified>\n");
     }
 
+    boolean isRawBody() {
+        return cmdargs.containsKey(RAW_ARG);
+    }
+
+    /**
+     * Whether registration files are checked before they are sent, which is
+     * the case unless --no-validate was given.
+     */
+    boolean isValidating() {
+        return !cmdargs.containsKey(NO_VALIDATE_ARG);
+    }
+
+    private int getConcurrency() {
+        String value = cmdargs.get(CONCURRENCY_ARG);
+        int concurrency = (value == null) ? BulkRegistration.DEFAULT_CONCURRENCY : Integer.parseInt(value);
+        if(concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1 : " + value);
+        }
+        return concurrency;
+    }
+
     //Configuration options for invoking via code
 
     public String getRoomid() {
@@ -168,14 +501,55 @@ public class RegistrationUtility {
 
     public void setRoomid(String roomid) {
         this.roomid = roomid;
+        this.signature = null;
+    }
+
+    /**
+     * Reads the body from a registration file, as stored if --raw was given,
+     * otherwise checked and in its canonical form unless --no-validate was given.
+     * @throws IllegalArgumentException if the file isn't a valid registration
+     */
+    void loadBody(String path) throws IOException {
+        long start = System.nanoTime();
+        if(isValidating()) {
+            RoomValidator.Result result = RoomValidator.validate(path, isRawBody());
+            if(!result.isValid()) {
+                throw new IllegalArgumentException(result.describe());
+            }
+            setBodyBytes(result.body);
+        } else {
+            setBodyBytes(BodyReader.read(path, isRawBody()));
+        }
+        time(Metrics.Phase.FILE_READ, start);
+    }
+
+    /**
+     * Uses a body that has already been read and checked, counting the time
+     * that took as the file read for this request.
+     */
+    void setCheckedBody(RoomValidator.Result checked) {
+        setBodyBytes(checked.body.duplicate());
+        timings[Metrics.Phase.FILE_READ.ordinal()] = checked.nanos;
     }
 
     public String getBody() {
-        return body;
+        return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
     }
 
     public void setBody(String body) {
-        this.body = body;
+        setBodyBytes((body != null) ? ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)) : EMPTY_BODY);
+    }
+
+    /**
+     * The body as it will be sent, from the buffer's position to its limit.
+     */
+    public ByteBuffer getBodyBytes() {
+        return body.duplicate();
+    }
+
+    public void setBodyBytes(ByteBuffer body) {
+        this.body = (body != null) ? body : EMPTY_BODY;
+        this.signature = null;
     }
 
     public String getUrl() {
@@ -184,6 +558,7 @@ public class RegistrationUtility {
 
     public void setUrl(String url) {
         this.url = url;
+        this.client = null;
     }
 
     public HTTP_METHOD getMethod() {
@@ -192,98 +567,102 @@ public class RegistrationUtility {
 
     public void setMethod(HTTP_METHOD method) {
         this.method = method;
+        this.signature = null;
     }
 
-    public String getId() {
-        return cmdargs.get(GAMEON_ID);
+    public PrintStream getOutput() {
+        return out;
     }
 
-    public void setId(String id) {
-        cmdargs.put(GAMEON_ID, id);
+    public void setOutput(PrintStream out) {
+        this.out = out;
     }
 
-    public String getSecret() {
-        return cmdargs.get(GAMEON_SECRET);
+    RequestSigner.Signature getSignature() {
+        return signature;
     }
 
-    public void setSecret(String secret) {
-        cmdargs.put(GAMEON_SECRET, secret);
+    /**
+     * Sends the request with a signature made beforehand, which must be for
+     * the same credentials, method, room and body.
+     */
+    void setSignature(RequestSigner.Signature signature) {
+        this.signature = signature;
     }
 
-    protected HttpURLConnection sendToServer(HttpURLConnection con) throws Exception {
+    /**
+     * The body of the last response from the server, if it sent one.
+     */
+    public String getResponse() {
+        return response;
+    }
 
-        // http response code
-        System.out.println("Executing " + getMethod().toString());
-        if (getRoomid() != null){
-            System.out.println("For roomid: " + getRoomid());
+    /**
+     * The signer for the current id and secret, shared with any utilities
+     * created by {@link #forRequest(HTTP_METHOD, String)}.
+     */
+    public RequestSigner getSigner() {
+        if(signer == null) {
+            signer = new RequestSigner(getId(), getSecret());
         }
+        return signer;
+    }
 
-        String userId = cmdargs.get(GAMEON_ID);
-        String key = cmdargs.get(GAMEON_SECRET);
-
-        con.setRequestMethod(method.name());
-
-        if(!method.equals(HTTP_METHOD.GET)) {
-            con.setDoInput(true);
-            con.setDoOutput(true);
-            con.setRequestProperty("Content-Type", "application/json;");
-            con.setRequestProperty("Accept", "application/json,text/plain");
-
-            MultivaluedMap<String, Object> hmacHeaders = new MultivaluedHashMap<>();
-            SignedRequestMap headers = new SignedRequestMap.MVSO_StringMap(hmacHeaders);
-            String baseuri = (roomid != null) ? "/map/v1/sites/" + roomid : "/map/v1/sites";
-            //all methods except GET need to be authenticated
-            SignedRequestHmac clientHmac = new SignedRequestHmac(userId, key, method.name(), baseuri);
-            clientHmac.generateBodyHash(headers, body.getBytes("UTF-8"));
-            clientHmac.signRequest(headers);
-
-            for(String header : headers.keySet()) {
-                String value = headers.getAll(header, "");
-                con.setRequestProperty(header, value);
-                System.out.println(header + ":" + value);
-            }
+    //a GET doesn't need them, nor does a fan out where each endpoint has its own
+    private boolean hasCredentials() {
+        return getId() != null && getSecret() != null;
+    }
 
-            if(body != null) {
-                OutputStream os = con.getOutputStream();
-                os.write(body.getBytes("UTF-8"));
-                os.close();
-            }
-        } else {
-            con.setDoInput(true);
+    public Transport getTransport() {
+        if(transport == null) {
+            transport = PooledTransport.shared();
         }
-        return con;
+        return transport;
+    }
 
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+        this.client = null;
     }
 
-    private HttpURLConnection sendToServer(String url) throws Exception {
-        System.out.println("Connecting to GameOn! at " + url + "\n");
-        URL u = new URL(url);
-        HttpURLConnection con = (HttpURLConnection) u.openConnection();
+    public String getId() {
+        return cmdargs.get(GAMEON_ID);
+    }
 
-        // very permissive host name verification
-        if(url.startsWith("https://")) {
-            ((HttpsURLConnection)con).setHostnameVerifier( (String s, SSLSession ses) -> {return true;} );
-        }
+    public void setId(String id) {
+        cmdargs.put(GAMEON_ID, id);
+        this.signer = null;
+        this.client = null;
+        this.signature = null;
+    }
 
-        return sendToServer(con);
+    public String getSecret() {
+        return cmdargs.get(GAMEON_SECRET);
     }
 
-    private int getJSONResponse(HttpURLConnection con) throws Exception {
-        int resCode = con.getResponseCode();
-        int exitCode = (resCode >= HttpURLConnection.HTTP_OK) && (resCode <= HttpURLConnection.HTTP_NO_CONTENT) ? 0 : resCode;
-        System.out.println("Response from server. (code = " + resCode + ")");
+    public void setSecret(String secret) {
+        cmdargs.put(GAMEON_SECRET, secret);
+        this.signer = null;
+        this.client = null;
+        this.signature = null;
+    }
+
+    protected HttpURLConnection sendToServer(HttpURLConnection con) throws Exception {
+        RegistrationClient.Exchange exchange = exchange();
         try {
-            InputStream stream =  (exitCode == 0) ? con.getInputStream() : con.getErrorStream();
-            if (stream != null) {
-                try (BufferedReader buffer = new BufferedReader(
-                                                                new InputStreamReader(stream, "UTF-8"))) {
-                    String response = buffer.lines().collect(Collectors.joining("\n"));
-                    System.out.println(response);
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("The server did not supply any additional information.");
+            return getClient().prepare(con, exchange);
+        } finally {
+            signature = exchange.signature;
         }
-        return resCode;
+    }
+
+    /**
+     * Generates the HMAC signature headers for the current method, room and body.
+     * This is done when the request is sent unless it has been called beforehand.
+     */
+    protected void sign() throws Exception {
+        RegistrationClient.Exchange exchange = exchange();
+        getClient().sign(exchange);
+        signature = exchange.signature;
     }
 }
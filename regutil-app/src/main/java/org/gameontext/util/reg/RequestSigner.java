@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Signs requests to the map service for one id and secret. Create one and
+ * share it, it is safe to use from any number of threads. Each thread keeps
+ * its own initialised HMAC and digest, so after the first request on a
+ * thread the key is never set up again.
+ *
+ * The signatures are the same as those generated by the GameOn! signed library:
+ * the body hash is the Base64 SHA-256 of the body, and the signature is the
+ * Base64 HMAC-SHA256 of the method, URI, id, date and body hash.
+ */
+public class RequestSigner {
+
+    static final String HMAC_ALGORITHM = "HmacSHA256";
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** The headers set on each request, in the order of {@link Signature#value(int)} */
+    static final String[] HEADERS = { "gameon-id", "gameon-date", "gameon-sig-body", "gameon-signature" };
+
+    private static final byte[][] METHODS = new byte[HTTP_METHOD.values().length][];
+    static {
+        for(HTTP_METHOD method : HTTP_METHOD.values()) {
+            METHODS[method.ordinal()] = method.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final String id;
+    private final byte[] idBytes;
+    private final ThreadLocal<Mac> macs;
+
+    public RequestSigner(String id, String secret) {
+        if(id == null || secret == null) {
+            throw new IllegalArgumentException("Both an id and a secret are needed to sign requests");
+        }
+        this.id = id;
+        this.idBytes = id.getBytes(StandardCharsets.UTF_8);
+        SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The Base64 encoded SHA-256 hash of the buffer from its position to its limit.
+     */
+    static String hash(ByteBuffer body) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update(body.duplicate());
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * The signature headers for a single request.
+     */
+    public static class Signature {
+        private final String[] values;
+
+        Signature(String id, String date, String bodyHash, String signature) {
+            this.values = new String[] { id, date, bodyHash, signature };
+        }
+
+        /**
+         * The value of the header named by {@link RequestSigner#HEADERS}[index]
+         */
+        String value(int index) {
+            return values[index];
+        }
+
+        public void applyTo(HttpURLConnection con) {
+            for(int i = 0; i < HEADERS.length; i++) {
+                con.setRequestProperty(HEADERS[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Signs a request, the body is read from its position to its limit
+     * without changing either.
+     * @param uri the path being requested, e.g. /map/v1/sites
+     */
+    public Signature sign(HTTP_METHOD method, String uri, ByteBuffer body) {
+        return sign(method, uri, body, Instant.now().toString());
+    }
+
+    Signature sign(HTTP_METHOD method, String uri, ByteBuffer body, String date) {
+        String bodyHash = hash(body);
+
+        Mac mac = macs.get();
+        mac.update(METHODS[method.ordinal()]);
+        mac.update(uri.getBytes(StandardCharsets.UTF_8));
+        mac.update(idBytes);
+        mac.update(date.getBytes(StandardCharsets.US_ASCII));
+        mac.update(bodyHash.getBytes(StandardCharsets.US_ASCII));
+        String signature = Base64.getEncoder().encodeToString(mac.doFinal());
+
+        return new Signature(id, date, bodyHash, signature);
+    }
+}
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of GET responses, kept on disk so it lasts between runs.
+ * Each response is stored in its own file, named after the hash of the URL
+ * it came from, along with the ETag and Last-Modified headers used to ask
+ * the map service whether it has changed. Once there are more than the
+ * maximum number of responses, the least recently used are removed. A file's
+ * modified time is when it was last used, so the order survives a restart.
+ */
+class ResponseCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final Path directory;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final boolean offline;
+    //file names in least recently used order
+    private final LinkedHashMap<String, Boolean> files = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * A cached response.
+     */
+    static class Entry {
+        final String url;
+        final String etag;
+        final String lastModified;
+        final long stored;
+        final String body;
+
+        Entry(String url, String etag, String lastModified, long stored, String body) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.stored = stored;
+            this.body = body;
+        }
+    }
+
+    /**
+     * @param ttlMillis how long a response is used without asking the map
+     * service whether it has changed, 0 to always ask
+     * @param offline never ask the map service, responses older than the TTL are treated as missing
+     */
+    ResponseCache(Path directory, int maxEntries, long ttlMillis, boolean offline) throws IOException {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("The cache must hold at least 1 response : " + maxEntries);
+        }
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.offline = offline;
+        Files.createDirectories(directory);
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            for(Path file : stream) {
+                existing.add(file);
+            }
+        }
+        existing.sort((Path a, Path b) -> lastUsed(a).compareTo(lastUsed(b)));
+        for(Path file : existing) {
+            files.put(file.getFileName().toString(), Boolean.TRUE);
+        }
+        evict();
+    }
+
+    static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".regutil", "cache");
+    }
+
+    private static FileTime lastUsed(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Whether a response can be used without asking the map service.
+     */
+    boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.stored < ttlMillis;
+    }
+
+    /**
+     * @return the cached response for the URL, or null if there isn't one
+     */
+    Entry get(String url) {
+        String name = fileName(url);
+        synchronized(files) {
+            if(files.get(name) == null) {
+                return null;
+            }
+        }
+        Path file = directory.resolve(name);
+        try {
+            Map<?, ?> json = (Map<?, ?>) Json.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            //names are hashes, so make sure this is the URL we were asked for
+            if(!url.equals(json.get("url"))) {
+                return null;
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Entry(url, (String) json.get("etag"), (String) json.get("lastModified"),
+                             ((Number) json.get("stored")).longValue(), (String) json.get("body"));
+        } catch (IOException | RuntimeException e) {
+            //missing or corrupt, either way it needs fetching again
+            remove(url);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a response, replacing any earlier one for the URL.
+     */
+    void put(String url, String etag, String lastModified, String body) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("url", url);
+        json.put("etag", etag);
+        json.put("lastModified", lastModified);
+        json.put("stored", System.currentTimeMillis());
+        json.put("body", body);
+        String name = fileName(url);
+        try {
+            Path temp = Files.createTempFile(directory, name, ".tmp");
+            try {
+                Files.write(temp, Json.write(json).getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            //a cache that can't be written to is only slower
+            return;
+        }
+        synchronized(files) {
+            files.put(name, Boolean.TRUE);
+        }
+        evict();
+    }
+
+    /**
+     * Restarts the TTL of a response the map service says hasn't changed.
+     */
+    void refresh(Entry entry) {
+        put(entry.url, entry.etag, entry.lastModified, entry.body);
+    }
+
+    void remove(String url) {
+        String name = fileName(url);
+        synchronized(files) {
+            files.remove(name);
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            //it will be replaced or evicted later
+        }
+    }
+
+    private void evict() {
+        List<String> evicted = new ArrayList<>();
+        synchronized(files) {
+            for(Iterator<String> it = files.keySet().iterator(); files.size() > maxEntries && it.hasNext(); ) {
+                evicted.add(it.next());
+                it.remove();
+            }
+        }
+        for(String name : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(name));
+            } catch (IOException e) {
+                //tried again on the next start
+            }
+        }
+    }
+
+    private static String fileName(String url) {
+        String hash = RequestSigner.hash(ByteBuffer.wrap(url.getBytes(StandardCharsets.UTF_8)));
+        return hash.replace('/', '_').replace('+', '-').replace("=", "") + ".json";
+    }
+
+    /** A response was used without asking the map service */
+    void recordHit() {
+        hits.increment();
+    }
+
+    /** The map service said a cached response hasn't changed */
+    void recordRevalidated() {
+        revalidated.increment();
+    }
+
+    /** A response wasn't cached, or had changed, or was missing while offline */
+    void recordMiss() {
+        misses.increment();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getRevalidated() {
+        return revalidated.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    String describe() {
+        return hits.sum() + " hits, " + revalidated.sum() + " not modified, " + misses.sum() + " misses";
+    }
+}
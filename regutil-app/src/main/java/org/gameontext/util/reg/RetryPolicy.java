@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * When to resend a request that the map service pushed back on, and how long
+ * to wait first. Delays back off exponentially with full jitter, so workers that
+ * were rejected together don't all come back together, and a Retry-After from
+ * the server is honoured.
+ */
+class RetryPolicy {
+
+    static final int DEFAULT_RETRIES = 3;
+    static final long DEFAULT_BASE_DELAY_MILLIS = 250;
+    static final long MAX_DELAY_MILLIS = 10000;
+    //don't let a misbehaving server park us indefinitely
+    static final long MAX_RETRY_AFTER_MILLIS = 120000;
+
+    static final RetryPolicy NONE = new RetryPolicy(0, DEFAULT_BASE_DELAY_MILLIS);
+
+    private final int retries;
+    private final long baseDelayMillis;
+
+    RetryPolicy(int retries, long baseDelayMillis) {
+        if(retries < 0 || baseDelayMillis < 0) {
+            throw new IllegalArgumentException("Retries and retry delay must not be negative");
+        }
+        this.retries = retries;
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Codes that mean the service is overloaded or briefly unavailable, rather
+     * than that there is something wrong with the request.
+     */
+    static boolean isOverloaded(int code) {
+        return code == 429 || code == 503;
+    }
+
+    /**
+     * A 429 or 503 means the request was turned away, so anything can be sent
+     * again. A 502 or 504 from a gateway may come after the service has
+     * handled the request, so a POST isn't, as the room may be registered.
+     */
+    boolean shouldRetry(HTTP_METHOD method, int code, int attempt) {
+        if(attempt >= retries) {
+            return false;
+        }
+        if(isOverloaded(code)) {
+            return true;
+        }
+        return (code == 502 || code == 504) && !method.equals(HTTP_METHOD.POST);
+    }
+
+    /**
+     * A request that failed with an exception is only resent if it can't have
+     * reached the service, or if sending it twice does no harm. A POST that
+     * timed out may have registered the room already. A host that doesn't
+     * resolve won't by waiting, so that is reported straight away.
+     */
+    boolean shouldRetry(HTTP_METHOD method, IOException e, int attempt) {
+        if(attempt >= retries || e instanceof UnknownHostException) {
+            return false;
+        }
+        if(e instanceof ConnectException) {
+            return true;
+        }
+        return !method.equals(HTTP_METHOD.POST);
+    }
+
+    /**
+     * @param attempt the attempt that just failed, starting at 0
+     * @param retryAfter the Retry-After header from the response, may be null
+     */
+    long delayMillis(int attempt, String retryAfter) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, baseDelayMillis << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        long requested = parseRetryAfter(retryAfter);
+        return (requested >= 0) ? Math.min(requested, MAX_RETRY_AFTER_MILLIS) + delay / 4 : delay;
+    }
+
+    /**
+     * Retry-After is either a number of seconds or an HTTP date.
+     * @return the delay in milliseconds, or -1 if there isn't a usable one
+     */
+    static long parseRetryAfter(String value) {
+        if(value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value)) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime when = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(when.getZone()), when).toMillis());
+            } catch (DateTimeParseException notADate) {
+                return -1;
+            }
+        }
+    }
+}
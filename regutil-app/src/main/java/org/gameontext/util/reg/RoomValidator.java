@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Checks registration files before they are sent, so a bad file fails
+ * straight away rather than after a signed round trip to the map service.
+ * A registration must have a name, a full name, doors keyed by direction
+ * (n, s, e, w, u or d) and websocket connection details.
+ *
+ * Valid bodies are sent in their canonical form, with no white space and
+ * the fields sorted, which is smaller and always has the same hash however
+ * the file is laid out. With --raw the file is still checked but sent as stored.
+ */
+final class RoomValidator {
+
+    static final List<String> REQUIRED = Arrays.asList("name", "fullName", "doors", "connectionDetails");
+    static final List<String> DOORS = Arrays.asList("n", "s", "e", "w", "u", "d");
+
+    private RoomValidator() {
+    }
+
+    /**
+     * The outcome of checking a single file.
+     */
+    static class Result {
+        final String path;
+        /** The body to send, null if the file is invalid */
+        final ByteBuffer body;
+        /** The hash of the canonical body, null if the file is invalid */
+        final String hash;
+        final List<String> problems;
+        /** How long the file took to read and check, in nanoseconds */
+        long nanos = -1;
+
+        Result(String path, ByteBuffer body, String hash, List<String> problems) {
+            this.path = path;
+            this.body = body;
+            this.hash = hash;
+            this.problems = problems;
+        }
+
+        boolean isValid() {
+            return problems.isEmpty();
+        }
+
+        String describe() {
+            return "Invalid registration file " + path + " : " + String.join(", ", problems);
+        }
+    }
+
+    /**
+     * Reads and checks a registration file.
+     * @param raw send the file as stored rather than in its canonical form
+     */
+    static Result validate(String path, boolean raw) {
+        long start = System.nanoTime();
+        Result result = read(path, raw);
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static Result read(String path, boolean raw) {
+        ByteBuffer stored;
+        try {
+            stored = BodyReader.read(path, true);
+        } catch (IOException e) {
+            return invalid(path, "unable to read the file (" + e + ")");
+        }
+        Object json;
+        try {
+            json = Json.parse(StandardCharsets.UTF_8.decode(stored.duplicate()).toString());
+        } catch (IllegalArgumentException e) {
+            return invalid(path, "invalid JSON, " + e.getMessage());
+        }
+        List<String> problems = check(json);
+        if(!problems.isEmpty()) {
+            return new Result(path, null, null, problems);
+        }
+        ByteBuffer canonical = ByteBuffer.wrap(Json.canonical(json).getBytes(StandardCharsets.UTF_8));
+        return new Result(path, raw ? stored : canonical, RequestSigner.hash(canonical), problems);
+    }
+
+    private static Result invalid(String path, String problem) {
+        List<String> problems = new ArrayList<>();
+        problems.add(problem);
+        return new Result(path, null, null, problems);
+    }
+
+    /**
+     * Checks every file, in parallel on the common fork join pool.
+     * @return the results in the same order as the paths, each path only once
+     */
+    static List<Result> validateAll(Collection<String> paths, boolean raw) {
+        return new ArrayList<>(new LinkedHashSet<>(paths)).parallelStream()
+                                                          .map((String path) -> validate(path, raw))
+                                                          .collect(Collectors.toList());
+    }
+
+    /**
+     * Checks a registration body that has already been read, as for the records
+     * read from stdin.
+     * @return the body in its canonical form
+     * @throws IllegalArgumentException describing what is wrong with the body
+     */
+    static String canonical(String body) {
+        Object json;
+        try {
+            json = Json.parse(body);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid registration, invalid JSON, " + e.getMessage());
+        }
+        List<String> problems = check(json);
+        if(!problems.isEmpty()) {
+            throw new IllegalArgumentException("Invalid registration : " + String.join(", ", problems));
+        }
+        return Json.canonical(json);
+    }
+
+    /**
+     * @return what is wrong with a registration, empty if nothing is
+     */
+    static List<String> check(Object json) {
+        List<String> problems = new ArrayList<>();
+        if(!(json instanceof Map)) {
+            problems.add("a registration must be a JSON object");
+            return problems;
+        }
+        Map<?, ?> room = (Map<?, ?>) json;
+        for(String field : REQUIRED) {
+            if(room.get(field) == null) {
+                problems.add("missing " + field);
+            }
+        }
+        text(room, "name", problems);
+        text(room, "fullName", problems);
+        if(room.containsKey("description") && !(room.get("description") instanceof String)) {
+            problems.add("description must be a string");
+        }
+
+        Object doors = room.get("doors");
+        if(doors != null && !(doors instanceof Map)) {
+            problems.add("doors must be an object");
+        } else if(doors != null) {
+            for(Map.Entry<?, ?> door : ((Map<?, ?>) doors).entrySet()) {
+                if(!DOORS.contains(door.getKey())) {
+                    problems.add("unknown door " + door.getKey() + " (not one of " + String.join("/", DOORS) + ")");
+                } else if(!(door.getValue() instanceof String) || ((String) door.getValue()).trim().isEmpty()) {
+                    problems.add("door " + door.getKey() + " needs a description");
+                }
+            }
+        }
+
+        Object details = room.get("connectionDetails");
+        if(details != null && !(details instanceof Map)) {
+            problems.add("connectionDetails must be an object");
+        } else if(details != null) {
+            Map<?, ?> connection = (Map<?, ?>) details;
+            if(!"websocket".equals(connection.get("type"))) {
+                problems.add("connectionDetails.type must be websocket");
+            }
+            Object target = connection.get("target");
+            if(!(target instanceof String) || !(((String) target).startsWith("ws://") || ((String) target).startsWith("wss://"))) {
+                problems.add("connectionDetails.target must be a ws:// or wss:// URL");
+            }
+        }
+        return problems;
+    }
+
+    private static void text(Map<?, ?> room, String field, List<String> problems) {
+        Object value = room.get(field);
+        if(value != null && (!(value instanceof String) || ((String) value).trim().isEmpty())) {
+            problems.add(field + " must be a non empty string");
+        }
+    }
+
+    /**
+     * Prints what is wrong with each invalid file.
+     * @return the number of invalid files
+     */
+    static int report(PrintStream out, List<Result> results) {
+        int invalid = 0;
+        for(Result result : results) {
+            if(!result.isValid()) {
+                out.println(result.describe());
+                invalid++;
+            }
+        }
+        return invalid;
+    }
+}
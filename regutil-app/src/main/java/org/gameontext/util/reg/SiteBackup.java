@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * Exports every site registered for an id to a gzipped NDJSON file, one site
+ * per line as the map service returns it, and restores sites from such a file.
+ *
+ * Neither the listing nor the file is ever held in memory. The listing is read
+ * a site at a time as it arrives, and only a small window of requests is in
+ * flight at once, so an export of ten thousand rooms uses no more memory than
+ * one of ten. Lines are written in the order the map service listed them.
+ */
+class SiteBackup {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RegistrationUtility template;
+    private final BulkRegistration bulk;
+    private final int concurrency;
+
+    SiteBackup(RegistrationUtility template, int concurrency) {
+        this.template = template;
+        this.bulk = new BulkRegistration(template, concurrency);
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Lists the sites for an owner, fetches each one in parallel and writes
+     * them to the file. The file is only replaced once every site has been
+     * exported, otherwise what was exported is left next to it as .partial.
+     * @return 0 if every site was exported, otherwise the first failure's exit code
+     */
+    int export(String owner, Path file) throws Exception {
+        PrintStream out = template.getOutput();
+        String url = template.getUrl() + "?owner=" + URLEncoder.encode(owner, "UTF-8");
+        out.println("Listing sites owned by " + owner + " from " + url);
+        HttpURLConnection con = template.getClient().stream(url, out);
+        int code = con.getResponseCode();
+        if(code != HttpURLConnection.HTTP_OK) {
+            out.println("Unable to list sites. (code = " + code + ")");
+            con.disconnect();
+            return RegistrationUtility.exitCode(code);
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Window window = new Window(out, "regutil-export");
+        try (Reader in = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                             new GZIPOutputStream(Files.newOutputStream(temp), BUFFER_SIZE), StandardCharsets.UTF_8))) {
+            Json.Parser parser = new Json.Parser(in);
+            parser.beginArray();
+            while(parser.nextElement()) {
+                Object site = parser.readValue();
+                Object roomid = (site instanceof Map) ? ((Map<?, ?>) site).get("_id") : null;
+                if(roomid == null) {
+                    out.println("Skipping a listed site without an _id : " + Json.write(site));
+                    window.invalid();
+                    continue;
+                }
+                BulkRegistration.Entry entry = new BulkRegistration.Entry(HTTP_METHOD.GET, String.valueOf(roomid), null);
+                window.add(() -> bulk.send(entry, null), result -> {
+                    Object fetched = parseSite(result.response);
+                    if(fetched == null) {
+                        return false;
+                    }
+                    //re-written so each site is on one line, whatever the service sent
+                    writer.write(Json.write(fetched));
+                    writer.write('\n');
+                    return true;
+                });
+            }
+            window.finish();
+        } catch (Exception e) {
+            window.abort();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if(window.failures > 0) {
+            //a partial export mustn't replace a good one
+            Path partial = file.resolveSibling(file.getFileName() + ".partial");
+            Files.move(temp, partial, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            out.println("Exported " + window.succeeded + " sites to " + partial + ", " + window.failures + " failed, " + file + " was left as it was");
+            return window.exitCode;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out.println("Exported " + window.succeeded + " sites to " + file + ", " + window.failures + " failed");
+        return window.exitCode;
+    }
+
+    /**
+     * Replays an export. Each site is updated in place with a PUT, or
+     * registered again with a POST if the map service no longer has it, in
+     * which case it gets a new id.
+     * @return 0 if every site was restored, otherwise the first failure's exit code
+     */
+    int restore(Path file) throws Exception {
+        PrintStream out = template.getOutput();
+        out.println("Restoring sites from " + file);
+        Window window = new Window(out, "regutil-restore");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            long number = 0;
+            for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+                number++;
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+                Object site;
+                try {
+                    site = Json.parse(line);
+                } catch (IllegalArgumentException e) {
+                    out.println("Line " + number + " : invalid JSON, " + e.getMessage());
+                    window.invalid();
+                    continue;
+                }
+                Object roomid = (site instanceof Map) ? ((Map<?, ?>) site).get("_id") : null;
+                Object info = (site instanceof Map) ? ((Map<?, ?>) site).get("info") : null;
+                if(roomid == null || info == null) {
+                    out.println("Line " + number + " : not a site, it needs an _id and info");
+                    window.invalid();
+                    continue;
+                }
+                ByteBuffer body = ByteBuffer.wrap(Json.write(info).getBytes(StandardCharsets.UTF_8));
+                String id = String.valueOf(roomid);
+                window.add(() -> {
+                    BulkRegistration.Result result = bulk.send(new BulkRegistration.Entry(HTTP_METHOD.PUT, id, null), body.duplicate());
+                    if(result.code == HttpURLConnection.HTTP_NOT_FOUND) {
+                        result = bulk.send(new BulkRegistration.Entry(HTTP_METHOD.POST, null, null), body.duplicate());
+                    }
+                    return result;
+                }, result -> {
+                    if(result.entry.method == HTTP_METHOD.POST) {
+                        Object created = parseSite(result.response);
+                        if(created == null) {
+                            return false;
+                        }
+                        out.println(id + " no longer existed, registered again as " + ((Map<?, ?>) created).get("_id"));
+                    }
+                    return true;
+                });
+            }
+        } finally {
+            window.finish();
+        }
+        out.println("Restored " + window.succeeded + " sites, " + window.failures + " failed");
+        return window.exitCode;
+    }
+
+    /**
+     * Export files are gzipped, but a file that has been unzipped can be restored too.
+     */
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        in.mark(2);
+        boolean gzipped = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        return gzipped ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    /**
+     * @return the site in a response, or null if there isn't one
+     */
+    private static Object parseSite(String response) {
+        if(response == null) {
+            return null;
+        }
+        try {
+            Object site = Json.parse(response);
+            return (site instanceof Map) ? site : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Completion {
+        /**
+         * @return false if the response wasn't what was expected, e.g. had no site in it
+         */
+        boolean accept(BulkRegistration.Result result) throws IOException;
+    }
+
+    /**
+     * Runs requests on a bounded pool, handling their results in the order
+     * they were added. Adding blocks once the oldest request is a few batches
+     * behind, which is what keeps memory flat.
+     */
+    private class Window {
+        private final PrintStream out;
+        private final ExecutorService pool;
+        private final Deque<Future<BulkRegistration.Result>> pending = new ArrayDeque<>();
+        private final Deque<Completion> completions = new ArrayDeque<>();
+        long succeeded = 0;
+        long failures = 0;
+        int exitCode = 0;
+
+        Window(PrintStream out, String name) {
+            this.out = out;
+            this.pool = Workers.newBoundedPool(concurrency, name);
+        }
+
+        void add(Callable<BulkRegistration.Result> request, Completion completion) throws Exception {
+            pending.add(pool.submit(request));
+            completions.add(completion);
+            if(pending.size() >= concurrency * 4) {
+                completeOldest();
+            }
+        }
+
+        void finish() throws Exception {
+            try {
+                while(!pending.isEmpty()) {
+                    completeOldest();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        /** Counts something that couldn't be sent at all */
+        void invalid() {
+            failures++;
+            if(exitCode == 0) {
+                exitCode = 1;
+            }
+        }
+
+        void abort() {
+            pool.shutdownNow();
+        }
+
+        private void completeOldest() throws Exception {
+            BulkRegistration.Result result = pending.remove().get();
+            Completion completion = completions.remove();
+            if(result.exitCode() != 0) {
+                out.println("---- " + result.entry + " failed" + (result.code >= 0 ? " (code = " + result.code + ")" : ""));
+                out.print(result.log);
+                if(result.error != null) {
+                    out.println("Error : " + result.error);
+                }
+                failures++;
+                if(exitCode == 0) {
+                    exitCode = result.exitCode();
+                }
+                return;
+            }
+            if(!completion.accept(result)) {
+                out.println("---- " + result.entry + " failed, there was no site in the response (code = " + result.code + ")");
+                invalid();
+                return;
+            }
+            succeeded++;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+/**
+ * An in-memory stand in for the map service's /map/v1/sites endpoint, so the
+ * utility can be exercised without a network, e.g. for load tests in CI.
+ *
+ * Rooms are kept in memory. POST, PUT and DELETE must be signed with the
+ * id and secret the stub was started with, or others added to it with
+ * {@link #addCredentials(String, String)}; requests with a missing,
+ * stale or incorrect signature are rejected with a 403 as the map service would.
+ * A GET without a room id lists the rooms, optionally filtered with ?owner=.
+ * A GET for a room sends an ETag, and a 304 if it matches If-None-Match.
+ * Request bodies may be gzipped, the signature being over the gzipped bytes,
+ * and responses are gzipped for clients that accept it.
+ */
+class StubMapService {
+
+    static final String PATH = "/map/v1/sites";
+
+    /** How far a request's gameon-date may be from the stub's clock */
+    private static final Duration MAX_CLOCK_SKEW = Duration.ofMinutes(5);
+
+    private final String id;
+    private final Map<String, RequestSigner> signers = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, byte[]> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final Map<String, Integer> throttled = new ConcurrentHashMap<>();
+    private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+    private volatile int capacity = 0;
+
+    /**
+     * @param port the port to listen on, or 0 for any free port
+     */
+    StubMapService(String id, String secret, int port) throws IOException {
+        this.id = id;
+        addCredentials(id, secret);
+        // otherwise the response body waits on a delayed ACK for the headers
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Workers.newBoundedPool(32, "regutil-stub");
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+    }
+
+    /**
+     * Accepts requests signed with another id and secret as well.
+     */
+    StubMapService addCredentials(String id, String secret) {
+        signers.put(id, new RequestSigner(id, secret));
+        return this;
+    }
+
+    StubMapService start() {
+        server.start();
+        return this;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + PATH;
+    }
+
+    /** The number of requests turned away because of their signature */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Turns requests away with a 503 while more than this many are being
+     * handled, as an overloaded map service would.
+     * @param capacity the number of requests to handle at once, 0 for no limit
+     */
+    StubMapService setCapacity(int capacity) {
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * Turns away every request from an id with a 429, as the map service does
+     * when an id is over its quota.
+     * @param retryAfterSecs the Retry-After to send
+     */
+    StubMapService throttle(String id, int retryAfterSecs) {
+        throttled.put(id, retryAfterSecs);
+        return this;
+    }
+
+    /** The number of requests turned away because the stub was over capacity */
+    long getOverloaded() {
+        return overloaded.get();
+    }
+
+    /**
+     * The number of connections requests have arrived on, told apart by the
+     * client's address and port.
+     */
+    int getConnections() {
+        return clients.size();
+    }
+
+    /** Request body bytes read, as sent, so compressed if the client compressed them */
+    long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /** Response body bytes written, as sent */
+    long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        clients.add(exchange.getRemoteAddress());
+        try {
+            if(inFlight.incrementAndGet() > capacity && capacity > 0) {
+                overloaded.incrementAndGet();
+                readBody(exchange.getRequestBody());
+                reply(exchange, 503, error("Service unavailable"));
+                return;
+            }
+            String requestId = exchange.getRequestHeaders().getFirst("gameon-id");
+            Integer retryAfter = (requestId != null) ? throttled.get(requestId) : null;
+            if(retryAfter != null) {
+                readBody(exchange.getRequestBody());
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+                reply(exchange, 429, error("Too many requests"));
+                return;
+            }
+            handleRequest(exchange);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            bytesReceived.add(body.length);
+            String path = exchange.getRequestURI().getPath();
+            String roomid = path.length() > PATH.length() + 1 ? path.substring(PATH.length() + 1) : null;
+            HTTP_METHOD method;
+            try {
+                method = HTTP_METHOD.valueOf(exchange.getRequestMethod());
+            } catch (IllegalArgumentException e) {
+                reply(exchange, 405, error("Method not allowed"));
+                return;
+            }
+
+            if(method != HTTP_METHOD.GET) {
+                String problem = checkSignature(exchange.getRequestHeaders(), method, path, body);
+                if(problem != null) {
+                    rejected.incrementAndGet();
+                    reply(exchange, 403, error(problem));
+                    return;
+                }
+            }
+            if("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                try {
+                    body = readBody(new GZIPInputStream(new ByteArrayInputStream(body)));
+                } catch (IOException e) {
+                    reply(exchange, 400, error("Invalid gzip body"));
+                    return;
+                }
+            }
+
+            switch(method) {
+            case POST:
+                roomid = "stub-" + nextId.incrementAndGet();
+                rooms.put(roomid, body);
+                reply(exchange, 201, site(roomid, body));
+                break;
+            case PUT:
+                if(roomid == null || rooms.replace(roomid, body) == null) {
+                    reply(exchange, 404, error("Room not found"));
+                } else {
+                    reply(exchange, 200, site(roomid, body));
+                }
+                break;
+            case DELETE:
+                if(roomid == null || rooms.remove(roomid) == null) {
+                    reply(exchange, 404, error("Room not found"));
+                } else {
+                    reply(exchange, 204, null);
+                }
+                break;
+            default:
+                if(roomid == null) {
+                    list(exchange);
+                    break;
+                }
+                byte[] room = rooms.get(roomid);
+                if(room == null) {
+                    reply(exchange, 404, error("Room not found"));
+                    break;
+                }
+                byte[] site = site(roomid, room);
+                String etag = "\"" + RequestSigner.hash(ByteBuffer.wrap(site)) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    reply(exchange, 304, null);
+                } else {
+                    reply(exchange, 200, site);
+                }
+                break;
+            }
+        } catch (RuntimeException e) {
+            reply(exchange, 500, error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return why the signature is not acceptable, or null if it is
+     */
+    private String checkSignature(Headers headers, HTTP_METHOD method, String path, byte[] body) {
+        String requestId = headers.getFirst("gameon-id");
+        String date = headers.getFirst("gameon-date");
+        String bodyHash = headers.getFirst("gameon-sig-body");
+        String signature = headers.getFirst("gameon-signature");
+        if(requestId == null || date == null || bodyHash == null || signature == null) {
+            return "Missing signature headers";
+        }
+        RequestSigner signer = signers.get(requestId);
+        if(signer == null) {
+            return "Unknown id " + requestId;
+        }
+        try {
+            if(Duration.between(Instant.parse(date), Instant.now()).abs().compareTo(MAX_CLOCK_SKEW) > 0) {
+                return "Request date is too old or too far in the future";
+            }
+        } catch (DateTimeParseException e) {
+            return "Invalid request date";
+        }
+        RequestSigner.Signature expected = signer.sign(method, path, ByteBuffer.wrap(body), date);
+        if(!expected.value(2).equals(bodyHash)) {
+            return "Body hash does not match the body";
+        }
+        if(!expected.value(3).equals(signature)) {
+            return "Invalid signature";
+        }
+        return null;
+    }
+
+    private static byte[] readBody(InputStream stream) throws IOException {
+        try (InputStream in = stream) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for(int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        }
+    }
+
+    /**
+     * Lists every room, or only those with the given owner, a site at a time
+     * so the response is streamed as the map service's is.
+     */
+    private void list(HttpExchange exchange) throws IOException {
+        String owner = null;
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query != null) {
+            for(String param : query.split("&")) {
+                if(param.startsWith("owner=")) {
+                    owner = URLDecoder.decode(param.substring("owner=".length()), "UTF-8");
+                }
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        boolean gzip = acceptsGzip(exchange);
+        if(gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = responseBody(exchange);
+        try (OutputStream out = new BufferedOutputStream(gzip ? new GZIPOutputStream(body) : body)) {
+            out.write('[');
+            if(owner == null || owner.equals(id)) {
+                boolean first = true;
+                for(Map.Entry<String, byte[]> room : rooms.entrySet()) {
+                    if(!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    out.write(site(room.getKey(), room.getValue()));
+                }
+            }
+            out.write(']');
+        }
+    }
+
+    private byte[] site(String roomid, byte[] body) {
+        Object info;
+        try {
+            info = Json.parse(new String(body, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            info = new String(body, StandardCharsets.UTF_8);
+        }
+        Map<String, Object> site = new LinkedHashMap<>();
+        site.put("_id", roomid);
+        site.put("owner", id);
+        site.put("info", info);
+        return Json.write(site).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] error(String message) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", message);
+        return Json.write(error).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void reply(HttpExchange exchange, int code, byte[] body) throws IOException {
+        if(body == null) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if(acceptsGzip(exchange)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = responseBody(exchange)) {
+            out.write(body);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return accept != null && accept.toLowerCase().contains("gzip");
+    }
+
+    //counts the bytes as they go on the wire
+    private OutputStream responseBody(HttpExchange exchange) {
+        return new FilterOutputStream(exchange.getResponseBody()) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesSent.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesSent.add(len);
+            }
+        };
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The local record of what has been registered, used to work out which rooms
+ * have changed since they were last sent. It is stored as newline delimited
+ * JSON with one line per registration file, e.g.
+ * <pre>
+ * {"file":"myRoom.json","roomid":"&lt;room ID&gt;","hash":"&lt;canonical body hash&gt;","code":200,"response":{...}}
+ * </pre>
+ */
+class SyncIndex {
+
+    static final String DEFAULT_NAME = ".regutil-index";
+
+    private final Path path;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * The state of a single registration file.
+     */
+    static class Entry {
+        final String file;
+        String roomid;
+        String hash;
+        int code = -1;
+        Object response;
+
+        Entry(String file) {
+            this.file = file;
+        }
+    }
+
+    private SyncIndex(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Loads an index, or starts an empty one if the file doesn't exist yet.
+     */
+    static SyncIndex load(Path path) throws IOException {
+        SyncIndex index = new SyncIndex(path);
+        if(Files.exists(path)) {
+            int lineNo = 0;
+            for(String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                lineNo++;
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+                Object parsed;
+                try {
+                    parsed = Json.parse(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Corrupt sync index " + path + " on line " + lineNo + " : " + e.getMessage());
+                }
+                String problem = read(parsed, index);
+                if(problem != null) {
+                    throw new IllegalArgumentException("Corrupt sync index " + path + " on line " + lineNo + " : " + problem);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds the entry on a line of the index.
+     * @return what is wrong with the line, or null if nothing is
+     */
+    private static String read(Object parsed, SyncIndex index) {
+        if(!(parsed instanceof Map)) {
+            return "not a JSON object";
+        }
+        Map<?, ?> fields = (Map<?, ?>) parsed;
+        Object file = fields.get("file");
+        Object roomid = fields.get("roomid");
+        Object hash = fields.get("hash");
+        if(!(file instanceof String)) {
+            return "no file";
+        }
+        if(roomid != null && !(roomid instanceof String)) {
+            return "the room ID for " + file + " isn't a string";
+        }
+        if(hash != null && !(hash instanceof String)) {
+            return "the hash for " + file + " isn't a string";
+        }
+        Entry entry = new Entry((String) file);
+        entry.roomid = (String) roomid;
+        entry.hash = (String) hash;
+        Object code = fields.get("code");
+        entry.code = (code instanceof Number) ? ((Number) code).intValue() : -1;
+        entry.response = fields.get("response");
+        index.entries.put(entry.file, entry);
+        return null;
+    }
+
+    Entry get(String file) {
+        return entries.get(file);
+    }
+
+    Entry getOrCreate(String file) {
+        return entries.computeIfAbsent(file, Entry::new);
+    }
+
+    void remove(String file) {
+        entries.remove(file);
+    }
+
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it into place, so an
+     * interrupted save never leaves a partial index behind.
+     */
+    void save() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for(Entry entry : entries.values()) {
+                Map<String, Object> fields = new LinkedHashMap<>();
+                fields.put("file", entry.file);
+                fields.put("roomid", entry.roomid);
+                fields.put("hash", entry.hash);
+                fields.put("code", entry.code);
+                fields.put("response", entry.response);
+                writer.write(Json.write(fields));
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+}
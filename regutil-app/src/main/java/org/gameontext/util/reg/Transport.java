@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Opens connections to the map service. Implementations decide how
+ * connections, TLS sessions and SSL contexts are shared between requests.
+ */
+public interface Transport {
+
+    /**
+     * Opens a connection to the given URL, ready for the request method and
+     * headers to be set.
+     */
+    HttpURLConnection open(String url) throws IOException;
+
+    /**
+     * Selects a transport by name, either "pooled" (the default) or
+     * "urlconnection" for a new, unshared connection per request.
+     */
+    static Transport forName(String name, boolean trustAll) {
+        if(name == null || name.equals("pooled")) {
+            return trustAll ? new PooledTransport(true) : PooledTransport.shared();
+        }
+        if(name.equals("urlconnection")) {
+            return new UrlConnectionTransport();
+        }
+        throw new IllegalArgumentException("Unknown transport : " + name);
+    }
+}
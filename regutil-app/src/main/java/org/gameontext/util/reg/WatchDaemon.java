@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the map service in line with a directory of registration files for
+ * as long as it runs. Does a full {@link DifferentialSync} when it starts,
+ * then waits for files to change and syncs just those, so each change goes
+ * out over connections and a signer that are already warmed up rather than
+ * paying for a new JVM.
+ *
+ * Editors and build tools tend to touch a file several times when saving
+ * it, so changes are collected until the directory has been quiet for the
+ * debounce period and then sent together.
+ */
+class WatchDaemon {
+
+    static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+    //keep sending while something writes to the directory continuously
+    private static final long MAX_BATCH_MILLIS = 2000;
+
+    private final RegistrationUtility template;
+    private final DifferentialSync sync;
+    private final File directory;
+    private final Path indexPath;
+    private final boolean deleteRemoved;
+    private final long debounceMillis;
+
+    WatchDaemon(RegistrationUtility template, int concurrency, File directory, Path indexPath,
+                boolean deleteRemoved, long debounceMillis) {
+        if(!directory.isDirectory()) {
+            throw new IllegalArgumentException("Invalid path for watch directory specified : " + directory);
+        }
+        this.template = template;
+        this.sync = new DifferentialSync(template, concurrency);
+        this.directory = directory;
+        this.indexPath = indexPath;
+        this.deleteRemoved = deleteRemoved;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Watches until the thread is interrupted or the directory goes away.
+     * @return the exit code of the last sync
+     */
+    int run() throws Exception {
+        PrintStream out = template.getOutput();
+        SyncIndex index = SyncIndex.load(indexPath);
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            //register before the first sync so nothing changed during it is missed
+            WatchKey key = directory.toPath().register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            int exitCode = sync.sync(directory, index, null, deleteRemoved);
+            out.println("Watching " + directory + " for changes\n");
+
+            while(true) {
+                Set<String> changed = new TreeSet<>();
+                try {
+                    WatchKey next = watcher.take();
+                    long first = System.nanoTime();
+                    boolean overflow = collect(next, changed);
+                    //wait for the burst of changes to finish
+                    while(System.nanoTime() - first < TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_MILLIS)
+                            && (next = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                        overflow |= collect(next, changed);
+                    }
+                    if(!key.isValid()) {
+                        out.println("Stopped watching " + directory + ", it is no longer accessible");
+                        return exitCode;
+                    }
+                    if(overflow || !changed.isEmpty()) {
+                        long start = System.nanoTime();
+                        exitCode = sync.sync(directory, index, overflow ? null : changed, deleteRemoved);
+                        out.println("Synced in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, "
+                                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - first) + "ms after the first change\n");
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return exitCode;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the names of the registration files a key has events for.
+     * @return whether events were lost, so the whole directory must be checked
+     */
+    private static boolean collect(WatchKey key, Set<String> changed) {
+        boolean overflow = false;
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == OVERFLOW) {
+                overflow = true;
+            } else {
+                String name = ((Path) event.context()).getFileName().toString();
+                if(name.endsWith(".json")) {
+                    changed.add(name);
+                }
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the worker pools used when more than one request is in flight.
+ * Virtual threads are used when the JDK we are running on has them,
+ * otherwise we fall back to ordinary daemon threads.
+ */
+final class Workers {
+
+    private static final ThreadFactory VIRTUAL = virtualThreadFactory();
+
+    private Workers() {
+    }
+
+    /**
+     * A pool that never runs more than the given number of tasks at once.
+     */
+    static ExecutorService newBoundedPool(int size, String name) {
+        return Executors.newFixedThreadPool(size, threadFactory(name));
+    }
+
+    /**
+     * A pool that starts a virtual thread for every task where the JDK has
+     * them, otherwise a pool that never runs more than the given number at once.
+     */
+    static ExecutorService newTaskPool(int size, String name) {
+        if(VIRTUAL != null) {
+            try {
+                //Java 21 and later, looked up like the thread factory
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (Exception e) {
+                //fall back to a bounded pool
+            }
+        }
+        return newBoundedPool(size, name);
+    }
+
+    static ThreadFactory threadFactory(String name) {
+        if(VIRTUAL != null) {
+            return VIRTUAL;
+        }
+        AtomicInteger count = new AtomicInteger();
+        return (Runnable r) -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    //we build against Java 8, so look up Thread.ofVirtual().factory() reflectively
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void test_halves_once_per_overload_and_recovers() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8);
+        long first = limiter.acquire();
+        long second = limiter.acquire();
+
+        limiter.release(first, true);
+        assertThat(limiter.getLimit(), is(4.0));
+        // in flight before the cut, so the same overload
+        limiter.release(second, true);
+        assertThat(limiter.getLimit(), is(4.0));
+        assertThat(limiter.getDecreases(), is(1L));
+
+        limiter.release(limiter.acquire(), true);
+        assertThat(limiter.getLimit(), is(2.0));
+
+        for(int i = 0; i < 100; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        assertThat(limiter.getLimit(), is(8.0));
+    }
+
+    @Test
+    public void test_never_below_one() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2);
+        for(int i = 0; i < 10; i++) {
+            limiter.release(limiter.acquire(), true);
+        }
+        assertThat(limiter.getLimit(), is(1.0));
+    }
+
+    @Test(timeout = 5000)
+    public void test_blocks_at_limit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1);
+        long ticket = limiter.acquire();
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.release(limiter.acquire(), false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertThat(waiter.isAlive(), is(true));
+        limiter.cancel();
+        waiter.join();
+    }
+}
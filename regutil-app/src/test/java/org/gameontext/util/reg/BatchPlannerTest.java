@@ -0,0 +1,105 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gameontext.util.reg.BulkRegistration.Entry;
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class BatchPlannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String first;
+    private String second;
+    private String reformatted;
+
+    @Before
+    public void files() throws Exception {
+        first = write("first.json", "{\"name\":\"first\",\"fullName\":\"First room\"}");
+        second = write("second.json", "{\"name\":\"second\"}");
+        reformatted = write("reformatted.json", "{\n  \"fullName\" : \"First room\",\n  \"name\" : \"first\"\n}");
+    }
+
+    private String write(String name, String json) throws Exception {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    private static List<String> planned(BatchPlanner.Plan plan) {
+        List<String> planned = new ArrayList<>();
+        for(List<Entry> chain : plan.chains) {
+            for(Entry entry : chain) {
+                planned.add(entry.toString());
+            }
+        }
+        return planned;
+    }
+
+    @Test
+    public void test_repeated_puts_keep_the_last() throws Exception {
+        BatchPlanner.Plan plan = new BatchPlanner().plan(Arrays.asList(
+                                     new Entry(HTTP_METHOD.PUT, "room", first),
+                                     new Entry(HTTP_METHOD.PUT, "room", second),
+                                     new Entry(HTTP_METHOD.PUT, "other", first)));
+        assertThat(planned(plan), contains("PUT room " + second, "PUT other " + first));
+        assertThat(plan.size(), is(2));
+        assertThat(plan.merged.size(), is(1));
+    }
+
+    @Test
+    public void test_post_then_delete_is_never_sent() throws Exception {
+        BatchPlanner.Plan plan = new BatchPlanner().plan(Arrays.asList(
+                                     new Entry(HTTP_METHOD.POST, "tmp", first),
+                                     new Entry(HTTP_METHOD.PUT, "tmp", second),
+                                     new Entry(HTTP_METHOD.GET, "tmp", null),
+                                     new Entry(HTTP_METHOD.DELETE, "tmp", null)));
+        assertThat(plan.chains, is(empty()));
+        assertThat(plan.entries, is(4));
+    }
+
+    @Test
+    public void test_put_is_folded_into_post() throws Exception {
+        BatchPlanner.Plan plan = new BatchPlanner().plan(Arrays.asList(
+                                     new Entry(HTTP_METHOD.POST, "new", first),
+                                     new Entry(HTTP_METHOD.PUT, "new", second),
+                                     new Entry(HTTP_METHOD.GET, "new", null)));
+        assertThat(planned(plan), contains("POST new " + second, "GET new"));
+    }
+
+    @Test
+    public void test_identical_bodies_are_sent_once() throws Exception {
+        BatchPlanner.Plan plan = new BatchPlanner().plan(Arrays.asList(
+                                     new Entry(HTTP_METHOD.POST, null, first),
+                                     new Entry(HTTP_METHOD.POST, null, reformatted),
+                                     new Entry(HTTP_METHOD.POST, null, second),
+                                     new Entry(HTTP_METHOD.PUT, "room", first),
+                                     new Entry(HTTP_METHOD.GET, "room", null),
+                                     new Entry(HTTP_METHOD.PUT, "room", reformatted)));
+        assertThat(planned(plan), contains("POST " + first, "POST " + second, "PUT room " + first, "GET room"));
+    }
+
+    @Test
+    public void test_delete_drops_earlier_puts_but_not_later_ones() throws Exception {
+        BatchPlanner.Plan plan = new BatchPlanner().plan(Arrays.asList(
+                                     new Entry(HTTP_METHOD.PUT, "room", first),
+                                     new Entry(HTTP_METHOD.DELETE, "room", null),
+                                     new Entry(HTTP_METHOD.DELETE, "room", null),
+                                     new Entry(HTTP_METHOD.PUT, "room", second)));
+        assertThat(planned(plan), contains("DELETE room", "PUT room " + second));
+        assertThat(plan.chains.size(), is(1));
+    }
+}
@@ -0,0 +1,84 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Rule;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+public class BodyReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the default must match what readFile has always done with Files.readAllLines
+    @Test
+    public void test_line_endings_match_read_all_lines() throws Exception {
+        String[] contents = { "", "\n", "abc", "abc\n", "abc\n\n", "a\r\nb\rc\nd", "\n\nx\r\n\r\n", "x\r" };
+        for(String content : contents) {
+            File file = folder.newFile();
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            String expected = String.join(System.getProperty("line.separator"), Files.readAllLines(file.toPath()));
+
+            ByteBuffer body = BodyReader.read(file.getAbsolutePath(), false);
+            assertThat(StandardCharsets.UTF_8.decode(body).toString(), is(expected));
+        }
+    }
+
+    @Test
+    public void test_raw_keeps_bytes_as_stored() throws Exception {
+        File file = folder.newFile();
+        byte[] content = "{\r\n\"name\":\"raw\"\r\n}\r\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), content);
+
+        ByteBuffer body = BodyReader.read(file.getAbsolutePath(), true);
+        byte[] read = new byte[body.remaining()];
+        body.get(read);
+        assertThat(read, is(content));
+    }
+
+    @Test
+    public void test_large_files_are_mapped() throws Exception {
+        File file = folder.newFile();
+        byte[] content = new byte[BodyReader.MAP_THRESHOLD + 1];
+        java.util.Arrays.fill(content, (byte) 'x');
+        Files.write(file.toPath(), content);
+
+        ByteBuffer body = BodyReader.read(file.getAbsolutePath(), false);
+        assertTrue(body.isDirect());
+        assertThat(body.remaining(), is(content.length));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BodyReader.write(body, out);
+        assertThat(out.toByteArray(), is(content));
+        // writing doesn't consume the buffer, so it can be sent again on a retry
+        assertThat(body.position(), is(0));
+    }
+
+    // a body signed before it is sent is compressed again when it is sent
+    @Test
+    public void test_gzip_is_repeatable() throws Exception {
+        ByteBuffer body = BodyReader.read("reg.json", false);
+        ByteBuffer compressed = BodyReader.gzip(body);
+        assertThat(BodyReader.gzip(body), is(compressed));
+        assertThat(body.position(), is(0));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()))) {
+            byte[] buffer = new byte[512];
+            for(int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        }
+        assertThat(ByteBuffer.wrap(out.toByteArray()), is(body));
+    }
+}
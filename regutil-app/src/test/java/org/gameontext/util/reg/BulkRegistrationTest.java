@@ -0,0 +1,103 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Rule;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class BulkRegistrationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_load_manifest() throws Exception {
+        File manifest = folder.newFile("manifest.txt");
+        Files.write(manifest.toPath(), String.join("\n"
+                                                   ,"# rooms for this deploy"
+                                                   ,"POST new.json"
+                                                   ,""
+                                                   ,"put room1   rooms/room1.json"
+                                                   ,"DELETE room2"
+                                                   ,"GET room3"
+                                                   ).getBytes());
+
+        List<BulkRegistration.Entry> entries = BulkRegistration.load(manifest.getAbsolutePath(), HTTP_METHOD.POST);
+        assertThat(entries.size(), is(4));
+
+        assertThat(entries.get(0).method, is(HTTP_METHOD.POST));
+        assertThat(entries.get(0).roomid, is(nullValue()));
+        assertThat(entries.get(0).path, is(new File(folder.getRoot(), "new.json").getPath()));
+
+        assertThat(entries.get(1).method, is(HTTP_METHOD.PUT));
+        assertThat(entries.get(1).roomid, is("room1"));
+        assertThat(entries.get(1).path, is(new File(folder.getRoot(), "rooms/room1.json").getPath()));
+
+        assertThat(entries.get(2).method, is(HTTP_METHOD.DELETE));
+        assertThat(entries.get(2).roomid, is("room2"));
+        assertThat(entries.get(2).path, is(nullValue()));
+
+        assertThat(entries.get(3).method, is(HTTP_METHOD.GET));
+        assertThat(entries.get(3).roomid, is("room3"));
+    }
+
+    @Test
+    public void test_load_directory_uses_file_name_as_room_id() throws Exception {
+        folder.newFile("b.json");
+        folder.newFile("a.json");
+        folder.newFile("notes.txt");
+
+        List<BulkRegistration.Entry> entries = BulkRegistration.load(folder.getRoot().getAbsolutePath(), HTTP_METHOD.PUT);
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).roomid, is("a"));
+        assertThat(entries.get(1).roomid, is("b"));
+        assertThat(entries.get(1).method, is(HTTP_METHOD.PUT));
+    }
+
+    @Test
+    public void test_manifest_entry_without_room_id_is_rejected() throws Exception {
+        File manifest = folder.newFile("manifest.txt");
+        Files.write(manifest.toPath(), "PUT room1.json".getBytes());
+        try {
+            BulkRegistration.load(manifest.getAbsolutePath(), HTTP_METHOD.POST);
+            fail("Expected the manifest to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("line 1"));
+        }
+    }
+
+    @Test
+    public void test_checking_a_file_is_timed_as_reading_it() throws Exception {
+        StubMapService stub = new StubMapService("id", "secret", 0).start();
+        try {
+            RegistrationUtility template = new RegistrationUtility();
+            template.setId("id");
+            template.setSecret("secret");
+            template.setUrl(stub.getUrl());
+            template.setOutput(new PrintStream(new ByteArrayOutputStream(), true));
+            File room = folder.newFile("room.json");
+            Files.write(room.toPath(), RegistrationUtility.readFile("reg.json").getBytes("UTF-8"));
+            BulkRegistration.Entry entry = new BulkRegistration.Entry(HTTP_METHOD.POST, null, room.getPath());
+
+            BulkRegistration bulk = new BulkRegistration(template, 1);
+            assertThat(bulk.validate(Collections.singletonList(entry)), notNullValue());
+            //the body comes from the check rather than the file, and so does its read time
+            BulkRegistration.Result result = bulk.send(entry, null);
+            assertThat(result.code, is(201));
+            assertThat(result.log, containsString("Timings (ms) : file_read "));
+        } finally {
+            stub.stop();
+        }
+    }
+}
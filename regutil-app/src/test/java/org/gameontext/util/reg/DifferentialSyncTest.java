@@ -0,0 +1,141 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DifferentialSyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubMapService stub;
+    private RegistrationClient client;
+    private RegistrationUtility template;
+    private ByteArrayOutputStream output;
+    private File rooms;
+    private Path index;
+    private String json;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+        client = RegistrationClient.builder("id", "secret").url(stub.getUrl()).build();
+        output = new ByteArrayOutputStream();
+        template = new RegistrationUtility();
+        template.setId("id");
+        template.setSecret("secret");
+        template.setUrl(stub.getUrl());
+        template.setOutput(new PrintStream(output, true));
+        rooms = folder.newFolder("rooms");
+        index = rooms.toPath().resolve(SyncIndex.DEFAULT_NAME);
+        json = RegistrationUtility.readFile("reg.json");
+        write("a.json", "Room A");
+        write("b.json", "Room B");
+    }
+
+    @After
+    public void stop() {
+        client.close();
+        stub.stop();
+    }
+
+    private void write(String file, String fullName) throws Exception {
+        Files.write(new File(rooms, file).toPath(), json.replace("Longer room name", fullName).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String sync() throws Exception {
+        output.reset();
+        assertThat(new DifferentialSync(template, 2).run(rooms, index, false), is(0));
+        return output.toString();
+    }
+
+    private String roomid(String file) throws Exception {
+        return SyncIndex.load(index).get(file).roomid;
+    }
+
+    @Test
+    public void test_unchanged_files_are_skipped() throws Exception {
+        assertThat(sync(), containsString("2 added, 0 changed, 0 removed, 0 unchanged"));
+        long received = stub.getBytesReceived();
+
+        //formatting doesn't count as a change
+        Files.write(new File(rooms, "a.json").toPath(), ("\n\n" + new String(Files.readAllBytes(new File(rooms, "a.json").toPath()), StandardCharsets.UTF_8))
+                        .getBytes(StandardCharsets.UTF_8));
+        assertThat(sync(), containsString("0 added, 0 changed, 0 removed, 2 unchanged"));
+        assertThat(stub.getBytesReceived(), is(received));
+    }
+
+    @Test
+    public void test_changed_files_are_put() throws Exception {
+        sync();
+        String roomid = roomid("a.json");
+        write("a.json", "Room A, redecorated");
+
+        assertThat(sync(), containsString("0 added, 1 changed, 0 removed, 1 unchanged"));
+        assertThat(roomid("a.json"), is(roomid));
+        assertThat(client.get(roomid).get().getBody(), containsString("Room A, redecorated"));
+        assertThat(sync(), containsString("0 changed"));
+    }
+
+    @Test
+    public void test_removed_files_are_only_deleted_when_asked() throws Exception {
+        sync();
+        String roomid = roomid("b.json");
+        Files.delete(new File(rooms, "b.json").toPath());
+
+        SyncIndex loaded = SyncIndex.load(index);
+        new DifferentialSync(template, 2).sync(rooms, loaded, null, false);
+        assertThat(output.toString(), containsString("0 removed, 1 unchanged, 1 removed but left registered"));
+        assertThat(client.get(roomid).get().getCode(), is(200));
+        assertThat(roomid("b.json"), is(roomid));
+
+        assertThat(sync(), containsString("1 removed"));
+        assertThat(client.get(roomid).get().getCode(), is(404));
+        assertThat(SyncIndex.load(index).get("b.json"), is(nullValue()));
+    }
+
+    @Test
+    public void test_index_is_not_updated_after_a_failed_request() throws Exception {
+        sync();
+        //a room the map service has lost, so the PUT is a 404
+        SyncIndex loaded = SyncIndex.load(index);
+        loaded.get("a.json").roomid = "missing";
+        loaded.save();
+        String hash = loaded.get("a.json").hash;
+        write("a.json", "Room A, redecorated");
+
+        output.reset();
+        assertThat(new DifferentialSync(template, 2).run(rooms, index, false), is(404));
+        SyncIndex.Entry entry = SyncIndex.load(index).get("a.json");
+        assertThat(entry.hash, is(hash));
+        assertThat(entry.roomid, is("missing"));
+        assertThat(entry.code, is(404));
+    }
+
+    @Test
+    public void test_verify_reports_drift() throws Exception {
+        sync();
+        //changed and removed behind the index's back
+        client.update(roomid("a.json"), json.replace("Longer room name", "Changed elsewhere")).get();
+        client.delete(roomid("b.json")).get();
+
+        output.reset();
+        assertThat(new DifferentialSync(template, 2).run(rooms, index, true), is(0));
+        assertThat(output.toString(), containsString("2 rooms differ from the index"));
+        assertThat(output.toString(), containsString("1 added, 1 changed, 0 removed, 0 unchanged"));
+        assertThat(client.get(roomid("a.json")).get().getBody(), containsString("Room A"));
+        assertThat(client.get(roomid("b.json")).get().getCode(), is(200));
+    }
+}
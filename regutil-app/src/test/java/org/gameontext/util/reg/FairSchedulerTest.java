@@ -0,0 +1,134 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class FairSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_token_bucket_allows_a_burst_then_the_rate() {
+        AtomicLong now = new AtomicLong();
+        FairScheduler.TokenBucket bucket = new FairScheduler.TokenBucket(2, now::get);
+        assertThat(bucket.take(), is(0L));
+        assertThat(bucket.take(), is(0L));
+        //half a second until the next token at 2 a second
+        assertThat(bucket.take(), is(allOf(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(500)),
+                                           lessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(500) + 1))));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(bucket.take(), is(0L));
+        assertThat(bucket.take(), is(greaterThan(0L)));
+
+        //a long pause only earns a second's worth
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(bucket.take(), is(0L));
+        assertThat(bucket.take(), is(0L));
+        assertThat(bucket.take(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void test_load_resolves_batches_against_the_file() throws Exception {
+        File file = teams("# teams", "red redsecret 10 red", "", "blue bluesecret 0 /rooms/blue.txt");
+        List<FairScheduler.Team> teams = FairScheduler.load(file.getPath());
+        assertThat(teams.size(), is(2));
+        assertThat(teams.get(0).id, is("red"));
+        assertThat(teams.get(0).rate, is(10.0));
+        assertThat(teams.get(0).path, is(new File(folder.getRoot(), "red").getPath()));
+        assertThat(teams.get(1).path, is(new File("/rooms/blue.txt").getPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_load_rejects_repeated_id() throws Exception {
+        FairScheduler.load(teams("red redsecret 10 red", "red other 5 blue").getPath());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_load_rejects_missing_rate() throws Exception {
+        FairScheduler.load(teams("red redsecret red").getPath());
+    }
+
+    @Test
+    public void test_small_batch_is_not_stuck_behind_a_large_one() throws Exception {
+        StubMapService stub = new StubMapService("big", "bigsecret", 0).addCredentials("small", "smallsecret").start();
+        try {
+            batch("big", 20);
+            batch("small", 2);
+            List<FairScheduler.Team> teams = FairScheduler.load(teams("big bigsecret 0 big", "small smallsecret 0 small").getPath());
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            RegistrationUtility template = new RegistrationUtility();
+            template.setOutput(new PrintStream(output, true));
+            template.setUrl(stub.getUrl());
+            template.setMethod(HTTP_METHOD.POST);
+
+            assertThat(new FairScheduler(template, teams, 1).run(), is(0));
+            assertThat(stub.getRejected(), is(0L));
+            assertThat(teams.get(0).getRequests(), is(20L));
+            assertThat(teams.get(1).getRequests(), is(2L));
+            //with one worker the teams take turns, so the small batch is done early on
+            assertThat(teams.get(1).getQueueWait().getMax(), is(lessThan(teams.get(0).getQueueWait().getMax())));
+            assertThat(output.toString(), containsString("==== small : exit code 0"));
+            assertThat(output.toString(), containsString("WAIT p95 ms"));
+        } finally {
+            stub.stop();
+        }
+    }
+
+    @Test
+    public void test_team_that_is_pushed_back_on_does_not_hold_up_the_others() throws Exception {
+        //every request from noisy is turned away, and retried after a couple of seconds
+        StubMapService stub = new StubMapService("quiet", "quietsecret", 0).addCredentials("noisy", "noisysecret").throttle("noisy", 2).start();
+        try {
+            batch("noisy", 4);
+            batch("quiet", 20);
+            File file = teams("noisy noisysecret 0 noisy", "quiet quietsecret 0 quiet");
+            List<FairScheduler.Team> teams = FairScheduler.load(file.getPath());
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            RegistrationUtility template = new RegistrationUtility();
+            template.parseArgs(new String[] {"--teams", "-u=" + stub.getUrl(), "--concurrency=4", "--retries=1", file.getPath()}, template);
+            template.setOutput(new PrintStream(output, true));
+
+            assertThat(new FairScheduler(template, teams, 4).run(), is(429));
+            assertThat(teams.get(1).getExitCode(), is(0));
+            assertThat(teams.get(1).getRequests(), is(20L));
+            //quiet never waits for a worker that noisy is sitting in
+            assertThat(teams.get(1).getQueueWait().getMax(), is(lessThan(TimeUnit.MILLISECONDS.toMicros(1500))));
+        } finally {
+            stub.stop();
+        }
+    }
+
+    private File teams(String... lines) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private void batch(String name, int rooms) throws Exception {
+        File directory = folder.newFolder(name);
+        String room = RegistrationUtility.readFile("reg.json");
+        for(int i = 0; i < rooms; i++) {
+            //different names, so the planner doesn't drop them as the same body
+            Files.write(new File(directory, name + i + ".json").toPath(),
+                        room.replace("roomShortname", name + i).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
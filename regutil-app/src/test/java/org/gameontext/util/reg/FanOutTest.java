@@ -0,0 +1,91 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class FanOutTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubMapService staging;
+    private StubMapService prod;
+    private ByteArrayOutputStream output;
+    private RegistrationUtility template;
+
+    @Before
+    public void start() throws Exception {
+        staging = new StubMapService("staging", "stagingsecret", 0).start();
+        prod = new StubMapService("prod", "prodsecret", 0).start();
+        output = new ByteArrayOutputStream();
+        template = new RegistrationUtility();
+        template.setOutput(new PrintStream(output, true));
+        template.setMethod(HTTP_METHOD.POST);
+        template.setBody(RegistrationUtility.readFile("reg.json"));
+    }
+
+    @After
+    public void stop() {
+        staging.stop();
+        prod.stop();
+    }
+
+    private String endpoints(String... lines) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    @Test
+    public void test_load_shares_signers_between_credentials() throws Exception {
+        List<FanOut.Endpoint> endpoints = FanOut.load(endpoints("# environments"
+                                                                ,"http://localhost/map/v1/sites id secret"
+                                                                ,""
+                                                                ,"https://staging/map/v1/sites id secret"
+                                                                ,"https://prod/map/v1/sites prod other"));
+        assertThat(endpoints.size(), is(3));
+        assertThat(endpoints.get(1).url, is("https://staging/map/v1/sites"));
+        assertThat(endpoints.get(1).signer, is(sameInstance(endpoints.get(0).signer)));
+        assertThat(endpoints.get(2).signer, is(not(sameInstance(endpoints.get(0).signer))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_load_rejects_missing_secret() throws Exception {
+        FanOut.load(endpoints("http://localhost/map/v1/sites id"));
+    }
+
+    @Test
+    public void test_each_endpoint_gets_the_request_with_its_own_credentials() throws Exception {
+        FanOut fanOut = new FanOut(template, FanOut.load(endpoints(staging.getUrl() + " staging stagingsecret"
+                                                                   ,prod.getUrl() + " prod prodsecret")), 2);
+        assertThat(fanOut.run(), is(0));
+        assertThat(staging.getRejected(), is(0L));
+        assertThat(prod.getRejected(), is(0L));
+        assertThat(output.toString(), containsString("==== " + staging.getUrl() + " as staging : exit code 0"));
+        assertThat(output.toString(), containsString("==== " + prod.getUrl() + " as prod : exit code 0"));
+    }
+
+    @Test
+    public void test_failing_endpoint_doesnt_fail_the_others() throws Exception {
+        FanOut fanOut = new FanOut(template, FanOut.load(endpoints(staging.getUrl() + " staging wrongsecret"
+                                                                   ,prod.getUrl() + " prod prodsecret")), 2);
+        assertThat(fanOut.run(), is(403));
+        assertThat(staging.getRejected(), is(1L));
+        assertThat(prod.getRejected(), is(0L));
+        assertThat(output.toString(), containsString("==== " + prod.getUrl() + " as prod : exit code 0"));
+    }
+}
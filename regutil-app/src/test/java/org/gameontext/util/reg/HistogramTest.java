@@ -0,0 +1,41 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class HistogramTest {
+
+    @Test
+    public void test_percentiles_within_bucket_precision() {
+        Histogram histogram = new Histogram();
+        for(long i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount(), is(10000L));
+        assertThat(histogram.getMax(), is(10000L));
+        assertThat(histogram.getMean(), is(closeTo(5000.5, 0.001)));
+        assertThat((double) histogram.percentile(50), is(closeTo(5000, 5000 * 0.04)));
+        assertThat((double) histogram.percentile(99), is(closeTo(9900, 9900 * 0.04)));
+        assertThat(histogram.percentile(100), is(10000L));
+    }
+
+    @Test
+    public void test_small_values_are_exact() {
+        Histogram histogram = new Histogram();
+        for(long i = 0; i < 32; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.percentile(50), is(15L));
+        assertThat(histogram.countAtOrBelow(9), is(10L));
+    }
+
+    @Test
+    public void test_buckets_are_contiguous() {
+        for(int i = 1; i < 64 * 32 - 1 && Histogram.highestValue(i) < Long.MAX_VALUE / 2; i++) {
+            assertThat(Histogram.index(Histogram.highestValue(i)), is(i));
+            assertThat(Histogram.index(Histogram.highestValue(i) + 1), is(i + 1));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.fail;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_records_are_read_back_on_resume() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("journal");
+        try (Journal journal = Journal.open(path, false)) {
+            journal.sending("POST k1 a.json#1");
+            journal.done("POST k1 a.json#1", 201, "room1");
+            journal.sending("PUT room2 b.json#1");
+            journal.done("PUT room2 b.json#1", 500, null);
+            journal.sending("POST c.json#1");
+        }
+
+        try (Journal journal = Journal.open(path, true)) {
+            Journal.Record post = journal.previous("POST k1 a.json#1");
+            assertThat(post.isSuccessful(), is(true));
+            assertThat(post.roomid, is("room1"));
+            assertThat(journal.previous("PUT room2 b.json#1").isSuccessful(), is(false));
+            assertThat(journal.previous("POST c.json#1").done, is(false));
+            assertThat(journal.previous("GET room3#1"), is(nullValue()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_earlier_journal_is_only_used_when_resuming() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, "{\"entry\":\"GET room1#1\",\"state\":\"sending\"}\n".getBytes(StandardCharsets.UTF_8));
+        Journal.open(path, false);
+    }
+
+    @Test
+    public void test_lines_that_are_not_records_are_corrupt() throws Exception {
+        for(String line : new String[] {"[1,2]", "{\"state\":\"sending\"}", "{\"entry\":\"GET room1#1\",\"state\":\"done\"}",
+                                        "{\"entry\":\"GET room1#1\",\"state\":\"done\",\"code\":\"200\"}",
+                                        "{\"entry\":\"GET room1#1\",\"state\":\"lost\"}"}) {
+            Path path = folder.newFile().toPath();
+            Files.write(path, ("{\"entry\":\"GET room2#1\",\"state\":\"sending\"}\n" + line + "\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                Journal.open(path, true).close();
+                fail("Expected " + line + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), containsString("Corrupt journal " + path + " on line 2"));
+            }
+        }
+    }
+
+    @Test
+    public void test_partly_written_line_is_dropped() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, ("{\"entry\":\"GET room1#1\",\"state\":\"sending\"}\n"
+                           + "{\"entry\":\"GET room1#1\",\"st").getBytes(StandardCharsets.UTF_8));
+        try (Journal journal = Journal.open(path, true)) {
+            assertThat(journal.previous("GET room1#1").done, is(false));
+            journal.done("GET room1#1", 200, null);
+        }
+        try (Journal journal = Journal.open(path, true)) {
+            assertThat(journal.previous("GET room1#1").isSuccessful(), is(true));
+        }
+        assertThat(Files.readAllLines(path).size(), is(2));
+    }
+
+    @Test
+    public void test_concurrent_writers_share_syncs() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("journal");
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try (Journal journal = Journal.open(path, false)) {
+            List<Future<?>> writers = new ArrayList<>();
+            for(int i = 0; i < 16; i++) {
+                int writer = i;
+                writers.add(pool.submit(() -> {
+                    for(int j = 0; j < 50; j++) {
+                        journal.sending("GET room" + writer + "-" + j + "#1");
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> writer : writers) {
+                writer.get();
+            }
+            assertThat(journal.getRecords(), is(800L));
+            assertThat(journal.getSyncs(), is(lessThanOrEqualTo(800L)));
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(Files.readAllLines(path).size(), is(800));
+    }
+
+    @Test
+    public void test_keys_count_repeated_entries() {
+        BulkRegistration.Entry get = new BulkRegistration.Entry(HTTP_METHOD.GET, "room1", null);
+        BulkRegistration.Entry again = new BulkRegistration.Entry(HTTP_METHOD.GET, "room1", null);
+        List<List<BulkRegistration.Entry>> chains = new ArrayList<>();
+        chains.add(Arrays.asList(get));
+        chains.add(Arrays.asList(again));
+        assertThat(Journal.keys(chains).get(get), is("GET room1#1"));
+        assertThat(Journal.keys(chains).get(again), is("GET room1#2"));
+    }
+
+    @Test
+    public void test_resumed_batch_only_sends_what_is_left() throws Exception {
+        StubMapService stub = new StubMapService("id", "secret", 0).start();
+        try {
+            File room = folder.newFile("room.json");
+            Files.write(room.toPath(), RegistrationUtility.readFile("reg.json").getBytes(StandardCharsets.UTF_8));
+            File manifest = folder.newFile("manifest.txt");
+            Files.write(manifest.toPath(), "POST k1 room.json\nGET k1\nPOST room.json\n".getBytes(StandardCharsets.UTF_8));
+            Path path = folder.getRoot().toPath().resolve("journal");
+
+            assertThat(runBatch(stub, manifest, path, false), containsString("EXIT"));
+            long received = stub.getBytesReceived();
+
+            //everything was done, so nothing is sent again
+            String output = runBatch(stub, manifest, path, true);
+            assertThat(output, containsString("Resuming, 3 of 3 entries were done by an earlier run"));
+            assertThat(stub.getBytesReceived(), is(received));
+
+            //a POST that was sent but never heard back from isn't sent again
+            Files.write(path, ("{\"entry\":\"POST k1 " + room.getPath() + "#1\",\"state\":\"sending\"}\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            output = runBatch(stub, manifest, path, true);
+            assertThat(output, containsString("not sent again in case the room was registered"));
+            assertThat(output, containsString("Skipped, as POST k1 " + room.getPath() + " failed"));
+        } finally {
+            stub.stop();
+        }
+    }
+
+    private static String runBatch(StubMapService stub, File manifest, Path path, boolean resume) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RegistrationUtility template = new RegistrationUtility();
+        template.setOutput(new PrintStream(output, true));
+        template.setUrl(stub.getUrl());
+        template.setId("id");
+        template.setSecret("secret");
+        BulkRegistration bulk = new BulkRegistration(template, 2);
+        List<BulkRegistration.Entry> entries = BulkRegistration.load(manifest.getPath(), HTTP_METHOD.POST);
+        try (Journal journal = Journal.open(path, resume)) {
+            bulk.setJournal(journal);
+            bulk.run(new BatchPlanner().plan(entries));
+        }
+        return output.toString();
+    }
+}
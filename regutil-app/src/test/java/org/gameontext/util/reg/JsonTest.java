@@ -0,0 +1,78 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class JsonTest {
+
+    @Test
+    public void test_round_trip_registration() throws Exception {
+        String json = RegistrationUtility.readFile("reg.json");
+        Object parsed = Json.parse(json);
+        assertThat(parsed, is(instanceOf(Map.class)));
+
+        Map<?, ?> room = (Map<?, ?>) parsed;
+        assertThat(room.get("name"), is("roomShortname"));
+        assertThat(((Map<?, ?>) room.get("doors")).size(), is(6));
+
+        // field order is kept and white space is dropped
+        String written = Json.write(parsed);
+        assertThat(written, startsWith("{\"name\":\"roomShortname\",\"fullName\":\"Longer room name\""));
+        assertThat(Json.parse(written), is(parsed));
+    }
+
+    @Test
+    public void test_values_and_escapes() {
+        List<?> values = (List<?>) Json.parse(" [ 1, -2.5, true, false, null, \"a\\u0041\\n\\\"\", {}, [] ] ");
+        assertThat(values.size(), is(8));
+        assertThat(values.get(2), is((Object) Boolean.TRUE));
+        assertThat(values.get(4), is(nullValue()));
+        assertThat(values.get(5), is((Object) "aA\n\""));
+        assertThat(Json.write(values), is("[1,-2.5,true,false,null,\"aA\\n\\\"\",{},[]]"));
+    }
+
+    @Test
+    public void test_invalid_json_is_rejected() {
+        for(String invalid : new String[] {"{", "[1,]", "{\"a\" 1}", "tru", "1 2", "\"abc"}) {
+            try {
+                Json.parse(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), containsString("at character"));
+            }
+        }
+    }
+
+    @Test
+    public void test_array_read_an_element_at_a_time() throws IOException {
+        Json.Parser parser = new Json.Parser(new StringReader(" [ {\"_id\":\"a\"}, {\"_id\":\"b\",\"doors\":[1,2]} ] "));
+        parser.beginArray();
+        List<Object> ids = new ArrayList<>();
+        while(parser.nextElement()) {
+            ids.add(((Map<?, ?>) parser.readValue()).get("_id"));
+        }
+        assertThat(ids, contains((Object) "a", "b"));
+        assertThat(parser.peek(), is(-1));
+
+        parser = new Json.Parser(new StringReader("[]"));
+        parser.beginArray();
+        assertThat(parser.nextElement(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_array_elements_must_be_separated() throws IOException {
+        Json.Parser parser = new Json.Parser(new StringReader("[1 2]"));
+        parser.beginArray();
+        while(parser.nextElement()) {
+            parser.readValue();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    private static long[] timings(long signingMillis) {
+        long[] timings = new long[Metrics.Phase.values().length];
+        Arrays.fill(timings, -1);
+        timings[Metrics.Phase.SIGNING.ordinal()] = signingMillis * 1000000;
+        return timings;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_json_counts_requests_and_phases() {
+        Metrics metrics = new Metrics();
+        metrics.record(HTTP_METHOD.POST, 201, timings(2), 10000000, 100);
+        metrics.record(HTTP_METHOD.PUT, 404, timings(4), 20000000, 50);
+        metrics.recordFailure(HTTP_METHOD.DELETE, new ConnectException());
+
+        Map<String, Object> json = metrics.toJson();
+        assertThat(json.get("requests"), is((Object) 3L));
+        assertThat(json.get("errors"), is((Object) 2L));
+        assertThat(json.get("bytesSent"), is((Object) 150L));
+        assertThat((Map<String, Object>) json.get("responses"), hasEntry("ConnectException", (Object) 1L));
+
+        Map<String, Object> phases = (Map<String, Object>) json.get("phases");
+        Map<String, Object> signing = (Map<String, Object>) phases.get("signing");
+        assertThat(signing.get("count"), is((Object) 2L));
+        Map<String, Object> connect = (Map<String, Object>) phases.get("connect");
+        assertThat("phases that weren't timed aren't counted", connect.get("count"), is((Object) 0L));
+    }
+
+    @Test
+    public void test_prometheus_buckets_are_cumulative() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.record(HTTP_METHOD.POST, 201, timings(2), 3000000, 100);
+        metrics.record(HTTP_METHOD.POST, 201, timings(2), 300000000, 100);
+
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+        String text = writer.toString();
+        assertThat(text, containsString("regutil_requests_total{method=\"POST\"} 2\n"));
+        assertThat(text, containsString("regutil_request_seconds_bucket{le=\"0.005\"} 1\n"));
+        assertThat(text, containsString("regutil_request_seconds_bucket{le=\"0.5\"} 2\n"));
+        assertThat(text, containsString("regutil_request_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertThat(text, containsString("regutil_request_seconds_count 2\n"));
+    }
+}
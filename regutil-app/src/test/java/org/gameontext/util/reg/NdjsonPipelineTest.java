@@ -0,0 +1,180 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NdjsonPipelineTest {
+
+    private StubMapService stub;
+    private RegistrationUtility template;
+    private String body;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+        template = new RegistrationUtility();
+        template.setId("id");
+        template.setSecret("secret");
+        template.setUrl(stub.getUrl());
+        template.setOutput(new PrintStream(new ByteArrayOutputStream(), true));
+        body = Json.write(Json.parse(RegistrationUtility.readFile("reg.json")));
+    }
+
+    @After
+    public void stop() {
+        stub.stop();
+    }
+
+    private String post() {
+        return "{\"method\":\"POST\",\"body\":" + body + "}";
+    }
+
+    private static List<Map<?, ?>> results(ByteArrayOutputStream output) {
+        List<Map<?, ?>> results = new ArrayList<>();
+        for(String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            results.add((Map<?, ?>) Json.parse(line));
+        }
+        return results;
+    }
+
+    private static int number(Map<?, ?> result, String field) {
+        return ((Number) result.get(field)).intValue();
+    }
+
+    private static InputStream lines(List<String> lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_one_result_per_line_in_order() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            lines.add(post());
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        //a single sender completes them in the order they were read
+        assertThat(new NdjsonPipeline(template, 1).run(lines(lines), new PrintStream(output)), is(0));
+
+        List<Map<?, ?>> results = results(output);
+        assertThat(results.size(), is(20));
+        for(int i = 0; i < 20; i++) {
+            assertThat(number(results.get(i), "line"), is(i + 1));
+            assertThat(number(results.get(i), "code"), is(201));
+            assertThat(number(results.get(i), "exit"), is(0));
+        }
+    }
+
+    @Test
+    public void test_every_line_has_a_result_when_sent_in_parallel() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            lines.add(post());
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertThat(new NdjsonPipeline(template, 8, 4).run(lines(lines), new PrintStream(output)), is(0));
+
+        boolean[] seen = new boolean[50];
+        for(Map<?, ?> result : results(output)) {
+            int line = number(result, "line");
+            assertThat("line " + line + " twice", seen[line - 1], is(false));
+            seen[line - 1] = true;
+        }
+        for(int i = 0; i < 50; i++) {
+            assertThat("line " + (i + 1), seen[i], is(true));
+        }
+    }
+
+    @Test
+    public void test_malformed_lines_are_reported_and_skipped() throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add(post());
+        lines.add("{ not json");
+        lines.add("[1, 2]");
+        lines.add("{\"method\":\"PATCH\",\"body\":" + body + "}");
+        lines.add("");
+        lines.add("{\"method\":\"PUT\",\"body\":" + body + "}");
+        lines.add(post());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertThat(new NdjsonPipeline(template, 1).run(lines(lines), new PrintStream(output)), is(1));
+
+        List<Map<?, ?>> results = results(output);
+        //the blank line has no result
+        assertThat(results.size(), is(6));
+        assertThat(number(results.get(0), "exit"), is(0));
+        assertThat(results.get(1).get("error"), notNullValue());
+        assertThat((String) results.get(2).get("error"), is("Each line must be a JSON object"));
+        assertThat((String) results.get(3).get("error"), is("Unknown HTTP method : PATCH"));
+        assertThat((String) results.get(4).get("error"), is("A roomid is required for PUT"));
+        assertThat(number(results.get(4), "line"), is(6));
+        for(int i = 1; i < 5; i++) {
+            assertThat(number(results.get(i), "exit"), is(1));
+            assertThat(results.get(i).get("code"), nullValue());
+        }
+        assertThat(number(results.get(5), "code"), is(201));
+    }
+
+    @Test
+    public void test_slow_output_holds_back_the_reader() throws Exception {
+        byte[] line = (post() + "\n").getBytes(StandardCharsets.UTF_8);
+        AtomicLong read = new AtomicLong();
+        //endless input, counting what the pipeline has read of it
+        InputStream endless = new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                read.incrementAndGet();
+                return line[(int) (position++ % line.length)];
+            }
+        };
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream stuck = new OutputStream() {
+            @Override
+            public void write(int b) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        Thread pipeline = new Thread(() -> {
+            try {
+                new NdjsonPipeline(template, 2, 2).run(endless, new PrintStream(stuck));
+            } catch (Exception e) {
+                //stopped
+            }
+        });
+        pipeline.setDaemon(true);
+        pipeline.start();
+        blocked.await();
+        Thread.sleep(500);
+        long before = read.get();
+        Thread.sleep(500);
+
+        assertThat("still reading", read.get(), is(before));
+        //two queues of two, a record with each of the two senders, one being written
+        //and what the reader has buffered
+        assertThat(before, lessThan(32L * 1024 + 8L * line.length));
+        pipeline.interrupt();
+        release.countDown();
+    }
+}
@@ -0,0 +1,68 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class PooledTransportTest {
+
+    private StubMapService stub;
+    private RegistrationClient client;
+    private String json;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+        //our own executor, so requests can be sent one at a time
+        client = RegistrationClient.builder("id", "secret").url(stub.getUrl())
+                                   .transport(new PooledTransport(false))
+                                   .executor(Runnable::run)
+                                   .build();
+        json = RegistrationUtility.readFile("reg.json");
+    }
+
+    @After
+    public void stop() {
+        client.close();
+        stub.stop();
+    }
+
+    @Test
+    public void test_requests_one_after_another_share_a_connection() throws Exception {
+        String siteId = client.register(json).get().getSiteId();
+        for(int i = 0; i < 10; i++) {
+            assertThat(client.update(siteId, json).get().isSuccessful(), is(true));
+            assertThat(client.get(siteId).get().isSuccessful(), is(true));
+        }
+        //a GET of a room that isn't there has an error body, which is read to the end too
+        assertThat(client.get("missing").get().isSuccessful(), is(false));
+        assertThat(client.delete(siteId).get().isSuccessful(), is(true));
+
+        assertThat(stub.getConnections(), is(1));
+    }
+
+    @Test
+    public void test_parallel_requests_reuse_their_connections() throws Exception {
+        RegistrationClient parallel = RegistrationClient.builder("id", "secret").url(stub.getUrl())
+                                                        .transport(new PooledTransport(false))
+                                                        .executor(Workers.newBoundedPool(4, "regutil-test"))
+                                                        .build();
+        for(int round = 0; round < 5; round++) {
+            List<CompletableFuture<RegistrationClient.Response>> pending = new ArrayList<>();
+            for(int i = 0; i < 4; i++) {
+                pending.add(parallel.register(json));
+            }
+            for(CompletableFuture<RegistrationClient.Response> response : pending) {
+                assertThat(response.get().isSuccessful(), is(true));
+            }
+        }
+        //20 requests, never more than 4 at once
+        assertThat(stub.getConnections(), lessThanOrEqualTo(4));
+    }
+}
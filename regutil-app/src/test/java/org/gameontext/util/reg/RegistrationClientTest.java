@@ -0,0 +1,165 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class RegistrationClientTest {
+
+    private StubMapService stub;
+    private RegistrationClient client;
+    private String json;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+        client = RegistrationClient.builder("id", "secret").url(stub.getUrl()).build();
+        json = RegistrationUtility.readFile("reg.json");
+    }
+
+    @After
+    public void stop() {
+        client.close();
+        stub.stop();
+    }
+
+    @Test
+    public void test_register_update_get_delete() throws Exception {
+        RegistrationClient.Response registered = client.register(json).get();
+        assertThat(registered.getCode(), is(201));
+        assertThat(registered.isSuccessful(), is(true));
+        String roomid = registered.getSiteId();
+        assertThat(roomid, is(notNullValue()));
+
+        assertThat(client.update(roomid, json).get().getCode(), is(200));
+        RegistrationClient.Response get = client.get(roomid).get();
+        assertThat(get.getCode(), is(200));
+        assertThat(get.getBody(), containsString("roomShortname"));
+        assertThat(client.delete(roomid).get().getCode(), is(204));
+
+        RegistrationClient.Response missing = client.get(roomid).get();
+        assertThat(missing.getCode(), is(404));
+        assertThat(missing.isSuccessful(), is(false));
+        assertThat(missing.getSiteId(), is(nullValue()));
+    }
+
+    @Test
+    public void test_concurrent_registrations_share_one_client() throws Exception {
+        List<CompletableFuture<RegistrationClient.Response>> pending = new ArrayList<>();
+        for(int i = 0; i < 200; i++) {
+            pending.add(client.register(json));
+        }
+        Set<String> ids = new HashSet<>();
+        for(CompletableFuture<RegistrationClient.Response> response : pending) {
+            assertThat(response.get().getCode(), is(201));
+            ids.add(response.get().getSiteId());
+        }
+        assertThat(ids.size(), is(200));
+        assertThat(stub.getRejected(), is(0L));
+    }
+
+    @Test
+    public void test_wrong_secret_is_a_response_not_a_failure() throws Exception {
+        try (RegistrationClient wrong = RegistrationClient.builder("id", "not the secret").url(stub.getUrl()).build()) {
+            RegistrationClient.Response response = wrong.register(json).get();
+            assertThat(response.getCode(), is(403));
+            assertThat(response.getBody(), containsString("Invalid signature"));
+            assertThat(response.getAttempts(), is(1));
+        }
+    }
+
+    @Test
+    public void test_unsigned_client_can_only_get() throws Exception {
+        try (RegistrationClient anonymous = RegistrationClient.builder(null, null).url(stub.getUrl()).build()) {
+            assertThat(anonymous.get("stub-1").get().getCode(), is(404));
+            try {
+                anonymous.delete("stub-1").get();
+                fail("Expected an unsigned DELETE to fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+            }
+        }
+    }
+
+    @Test
+    public void test_gzip_bodies_are_signed_as_sent() throws Exception {
+        String large = json.replace("Boring default room description.", String.join(" ", java.util.Collections.nCopies(2000, "Boring.")));
+        try (RegistrationClient gzip = RegistrationClient.builder("id", "secret").url(stub.getUrl()).gzip(true).build()) {
+            String roomid = gzip.register(large).get().getSiteId();
+            assertThat(stub.getRejected(), is(0L));
+            assertThat(stub.getBytesReceived(), is(lessThan((long) large.length() / 4)));
+
+            //the response is decompressed as it is read
+            RegistrationClient.Response get = gzip.get(roomid).get();
+            assertThat(get.getBody(), containsString("Boring. Boring."));
+            assertThat(stub.getBytesSent(), is(lessThan((long) get.getBody().length())));
+        }
+    }
+
+    @Test
+    public void test_post_is_not_resent_after_a_gateway_error() throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        HttpServer gateway = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        gateway.createContext(StubMapService.PATH, exchange -> {
+            received.incrementAndGet();
+            exchange.getRequestBody().close();
+            exchange.sendResponseHeaders(502, -1);
+            exchange.close();
+        });
+        gateway.start();
+        String url = "http://localhost:" + gateway.getAddress().getPort() + StubMapService.PATH;
+        try (RegistrationClient retrying = RegistrationClient.builder("id", "secret").url(url).retries(3, 1).build()) {
+            //the room may have been registered behind the gateway
+            RegistrationClient.Response registered = retrying.register(json).get();
+            assertThat(registered.getCode(), is(502));
+            assertThat(registered.getAttempts(), is(1));
+            assertThat(received.get(), is(1));
+
+            assertThat(retrying.update("stub-1", json).get().getAttempts(), is(4));
+            assertThat(received.get(), is(5));
+        } finally {
+            gateway.stop(0);
+        }
+    }
+
+    @Test
+    public void test_unknown_host_is_reported_without_retrying() throws Exception {
+        AtomicInteger opened = new AtomicInteger();
+        Transport counting = (String url) -> {
+            opened.incrementAndGet();
+            return PooledTransport.shared().open(url);
+        };
+        //.invalid is reserved, so it never resolves
+        try (RegistrationClient retrying = RegistrationClient.builder("id", "secret").url("http://regutil.invalid" + StubMapService.PATH)
+                                                             .transport(counting).retries(3, 1000).build()) {
+            try {
+                retrying.get("room1").get();
+                fail("Expected the host not to resolve");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(UnknownHostException.class));
+            }
+            assertThat(opened.get(), is(1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_room_id_is_required() {
+        client.update(null, json);
+    }
+}
@@ -0,0 +1,70 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+
+import org.gameontext.signed.SignedRequestHmac;
+import org.gameontext.signed.SignedRequestMap;
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class RequestSignerTest {
+
+    // The signer must produce exactly what the GameOn! signed library does
+    @Test
+    public void test_signature_matches_signed_library() throws Exception {
+        byte[] body = RegistrationUtility.readFile("reg.json").getBytes("UTF-8");
+
+        for(HTTP_METHOD method : new HTTP_METHOD[] { HTTP_METHOD.POST, HTTP_METHOD.PUT, HTTP_METHOD.DELETE }) {
+            String uri = (method == HTTP_METHOD.POST) ? "/map/v1/sites" : "/map/v1/sites/123";
+            SignedRequestMap headers = new SignedRequestMap.MVSO_StringMap(new MultivaluedHashMap<>());
+            SignedRequestHmac clientHmac = new SignedRequestHmac("id", "secret", method.name(), uri);
+            clientHmac.generateBodyHash(headers, body);
+            clientHmac.signRequest(headers);
+
+            String date = headers.getAll("gameon-date", "");
+            RequestSigner.Signature signature = new RequestSigner("id", "secret").sign(method, uri, ByteBuffer.wrap(body), date);
+            for(int i = 0; i < RequestSigner.HEADERS.length; i++) {
+                assertThat(method + " " + RequestSigner.HEADERS[i], signature.value(i), is(headers.getAll(RequestSigner.HEADERS[i], "")));
+            }
+        }
+    }
+
+    @Test
+    public void test_body_buffer_is_not_consumed() {
+        ByteBuffer body = ByteBuffer.wrap("{}".getBytes());
+        RequestSigner signer = new RequestSigner("id", "secret");
+        String first = signer.sign(HTTP_METHOD.POST, "/map/v1/sites", body, "date").value(3);
+        assertThat(body.remaining(), is(2));
+        assertThat(signer.sign(HTTP_METHOD.POST, "/map/v1/sites", body, "date").value(3), is(first));
+    }
+
+    @Test
+    public void test_shared_between_threads() throws Exception {
+        RequestSigner signer = new RequestSigner("id", "secret");
+        String expected = signer.sign(HTTP_METHOD.PUT, "/map/v1/sites/123", ByteBuffer.wrap("{}".getBytes()), "date").value(3);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> signatures = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                signatures.add(pool.submit(() -> signer.sign(HTTP_METHOD.PUT, "/map/v1/sites/123", ByteBuffer.wrap("{}".getBytes()), "date").value(3)));
+            }
+            for(Future<String> signature : signatures) {
+                assertThat(signature.get(), is(expected));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ResponseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubMapService stub;
+    private String json;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+        json = RegistrationUtility.readFile("reg.json");
+    }
+
+    @After
+    public void stop() {
+        stub.stop();
+    }
+
+    private RegistrationClient client(ResponseCache cache) {
+        return RegistrationClient.builder("id", "secret").url(stub.getUrl()).cache(cache).build();
+    }
+
+    @Test
+    public void test_repeat_get_is_revalidated() throws Exception {
+        ResponseCache cache = new ResponseCache(folder.getRoot().toPath(), 10, 0, false);
+        try (RegistrationClient client = client(cache)) {
+            String roomid = client.register(json).get().getSiteId();
+            String body = client.get(roomid).get().getBody();
+            RegistrationClient.Response again = client.get(roomid).get();
+            assertThat(again.getCode(), is(200));
+            assertThat(again.getBody(), is(body));
+            assertThat(cache.getMisses(), is(1L));
+            assertThat(cache.getRevalidated(), is(1L));
+
+            //an update drops the cached response
+            assertThat(client.update(roomid, json.replace("roomShortname", "renamed")).get().getCode(), is(200));
+            assertThat(client.get(roomid).get().getBody(), containsString("renamed"));
+            assertThat(cache.getMisses(), is(2L));
+        }
+    }
+
+    @Test
+    public void test_fresh_response_is_used_without_a_request() throws Exception {
+        ResponseCache cache = new ResponseCache(folder.getRoot().toPath(), 10, 60000, false);
+        try (RegistrationClient client = client(cache)) {
+            String roomid = client.register(json).get().getSiteId();
+            client.get(roomid).get();
+            RegistrationClient.Response cached = client.get(roomid).get();
+            assertThat(cached.getCode(), is(200));
+            assertThat(cached.getAttempts(), is(0));
+            assertThat(cache.getHits(), is(1L));
+        }
+    }
+
+    @Test
+    public void test_offline_uses_only_the_cache() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        String roomid;
+        try (RegistrationClient client = client(new ResponseCache(directory, 10, 0, false))) {
+            roomid = client.register(json).get().getSiteId();
+            client.get(roomid).get();
+        }
+        ResponseCache offline = new ResponseCache(directory, 10, Long.MAX_VALUE, true);
+        try (RegistrationClient client = client(offline)) {
+            RegistrationClient.Response cached = client.get(roomid).get();
+            assertThat(cached.getBody(), containsString("roomShortname"));
+            assertThat(cached.getAttempts(), is(0));
+            assertThat(client.get("not-cached").get().getCode(), is(504));
+            assertThat(offline.describe(), is("1 hits, 0 not modified, 1 misses"));
+        }
+    }
+
+    @Test
+    public void test_least_recently_used_are_evicted() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ResponseCache cache = new ResponseCache(directory, 2, 0, false);
+        cache.put("http://a", null, null, "a");
+        cache.put("http://b", null, null, "b");
+        assertThat(cache.get("http://a").body, is("a"));
+        cache.put("http://c", null, null, "c");
+        assertThat(cache.get("http://b"), is(nullValue()));
+        assertThat(cache.get("http://a").body, is("a"));
+        assertThat(Files.list(directory).count(), is(2L));
+
+        //the cache is still there after a restart
+        assertThat(new ResponseCache(directory, 2, 0, false).get("http://c").body, is("c"));
+    }
+}
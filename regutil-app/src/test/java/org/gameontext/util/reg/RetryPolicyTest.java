@@ -0,0 +1,72 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void test_only_transient_codes_are_retried() {
+        RetryPolicy policy = new RetryPolicy(2, 100);
+        assertThat(policy.shouldRetry(HTTP_METHOD.PUT, 503, 0), is(true));
+        assertThat(policy.shouldRetry(HTTP_METHOD.PUT, 429, 1), is(true));
+        assertThat("out of retries", policy.shouldRetry(HTTP_METHOD.PUT, 429, 2), is(false));
+        assertThat(policy.shouldRetry(HTTP_METHOD.PUT, 400, 0), is(false));
+        assertThat(policy.shouldRetry(HTTP_METHOD.PUT, 403, 0), is(false));
+        assertThat(RetryPolicy.NONE.shouldRetry(HTTP_METHOD.PUT, 503, 0), is(false));
+    }
+
+    @Test
+    public void test_gateway_errors_only_resend_what_is_safe_to_repeat() {
+        RetryPolicy policy = new RetryPolicy(2, 100);
+        assertThat(policy.shouldRetry(HTTP_METHOD.PUT, 502, 0), is(true));
+        assertThat(policy.shouldRetry(HTTP_METHOD.DELETE, 504, 0), is(true));
+        assertThat(policy.shouldRetry(HTTP_METHOD.POST, 502, 0), is(false));
+        assertThat(policy.shouldRetry(HTTP_METHOD.POST, 504, 0), is(false));
+        assertThat(policy.shouldRetry(HTTP_METHOD.POST, 429, 0), is(true));
+        assertThat(policy.shouldRetry(HTTP_METHOD.POST, 503, 0), is(true));
+    }
+
+    @Test
+    public void test_post_is_not_resent_if_it_may_have_arrived() {
+        RetryPolicy policy = new RetryPolicy(2, 100);
+        IOException timeout = new SocketTimeoutException();
+        assertThat(policy.shouldRetry(HTTP_METHOD.POST, new ConnectException(), 0), is(true));
+        assertThat(policy.shouldRetry(HTTP_METHOD.POST, timeout, 0), is(false));
+        assertThat(policy.shouldRetry(HTTP_METHOD.PUT, timeout, 0), is(true));
+        assertThat(policy.shouldRetry(HTTP_METHOD.GET, new UnknownHostException(), 0), is(false));
+    }
+
+    @Test
+    public void test_delay_is_jittered_under_exponential_ceiling() {
+        RetryPolicy policy = new RetryPolicy(10, 100);
+        for(int i = 0; i < 100; i++) {
+            assertThat(policy.delayMillis(0, null), is(both(greaterThanOrEqualTo(0L)).and(lessThanOrEqualTo(100L))));
+            assertThat(policy.delayMillis(3, null), is(lessThanOrEqualTo(800L)));
+            assertThat(policy.delayMillis(30, null), is(lessThanOrEqualTo(RetryPolicy.MAX_DELAY_MILLIS)));
+        }
+    }
+
+    @Test
+    public void test_retry_after_is_honoured() {
+        RetryPolicy policy = new RetryPolicy(3, 100);
+        assertThat(policy.delayMillis(0, "2"), is(both(greaterThanOrEqualTo(2000L)).and(lessThanOrEqualTo(2025L))));
+        assertThat(RetryPolicy.parseRetryAfter("120"), is(120000L));
+        assertThat(RetryPolicy.parseRetryAfter("soon"), is(-1L));
+        assertThat(RetryPolicy.parseRetryAfter(null), is(-1L));
+
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30));
+        assertThat(RetryPolicy.parseRetryAfter(date), is(both(greaterThan(28000L)).and(lessThanOrEqualTo(30000L))));
+    }
+}
@@ -0,0 +1,71 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class RoomValidatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String write(String name, String json) throws Exception {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    @Test
+    public void test_sample_registration_is_valid_and_canonical() throws Exception {
+        RoomValidator.Result result = RoomValidator.validate("reg.json", false);
+        assertThat(result.problems, is(empty()));
+        String body = StandardCharsets.UTF_8.decode(result.body.duplicate()).toString();
+        assertThat(body, startsWith("{\"connectionDetails\":{\"target\":"));
+        assertThat(body, not(containsString("\n")));
+        assertThat(result.hash, is(DifferentialSync.canonicalHash(result.body)));
+    }
+
+    @Test
+    public void test_raw_is_checked_but_sent_as_stored() throws Exception {
+        RoomValidator.Result result = RoomValidator.validate("reg.json", true);
+        assertThat(result.isValid(), is(true));
+        assertThat(result.body, is(BodyReader.read("reg.json", true)));
+        assertThat(result.hash, is(RoomValidator.validate("reg.json", false).hash));
+    }
+
+    @Test
+    public void test_problems_are_listed() {
+        List<String> problems = RoomValidator.check(Json.parse("{\"name\":\"\",\"doors\":{\"q\":\"up\",\"n\":1},"
+                                                               + "\"connectionDetails\":{\"type\":\"http\",\"target\":\"http://x\"}}"));
+        assertThat(problems, contains("missing fullName",
+                                      "name must be a non empty string",
+                                      "unknown door q (not one of n/s/e/w/u/d)",
+                                      "door n needs a description",
+                                      "connectionDetails.type must be websocket",
+                                      "connectionDetails.target must be a ws:// or wss:// URL"));
+        assertThat(RoomValidator.check(Json.parse("[]")), contains("a registration must be a JSON object"));
+    }
+
+    @Test
+    public void test_batch_is_checked_in_order_once_per_file() throws Exception {
+        String valid = write("valid.json", RegistrationUtility.readFile("reg.json"));
+        String broken = write("broken.json", "{\"name\":");
+        List<RoomValidator.Result> results = RoomValidator.validateAll(Arrays.asList(valid, broken, valid), false);
+        assertThat(results.size(), is(2));
+        assertThat(results.get(0).isValid(), is(true));
+        assertThat(results.get(1).describe(), startsWith("Invalid registration file " + broken + " : invalid JSON"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_record_body_is_rejected() {
+        RoomValidator.canonical("{\"name\":\"EasyReg\"}");
+    }
+}
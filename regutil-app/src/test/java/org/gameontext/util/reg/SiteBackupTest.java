@@ -0,0 +1,201 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class SiteBackupTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubMapService stub;
+    private RegistrationUtility template;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+        template = new RegistrationUtility();
+        template.setId("id");
+        template.setSecret("secret");
+        template.setUrl(stub.getUrl());
+        template.setOutput(new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    @After
+    public void stop() {
+        stub.stop();
+    }
+
+    private String register() throws Exception {
+        RegistrationUtility post = template.forRequest(HTTP_METHOD.POST, null);
+        post.setOutput(template.getOutput());
+        post.setBody(RegistrationUtility.readFile("reg.json"));
+        assertThat(post.execute(), is(201));
+        return (String) ((Map<?, ?>) Json.parse(post.getResponse())).get("_id");
+    }
+
+    private static List<String> lines(Path file) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                                     new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void test_export_then_restore() throws Exception {
+        List<String> registered = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            registered.add(register());
+        }
+        Path file = folder.getRoot().toPath().resolve("sites.ndjson.gz");
+        assertThat(new SiteBackup(template, 4).export("id", file), is(0));
+
+        List<String> lines = lines(file);
+        assertThat(lines.size(), is(20));
+        List<Object> exported = new ArrayList<>();
+        for(String line : lines) {
+            Map<?, ?> site = (Map<?, ?>) Json.parse(line);
+            assertThat(((Map<?, ?>) site.get("info")).get("name"), is("roomShortname"));
+            exported.add(site.get("_id"));
+        }
+        assertThat(exported, containsInAnyOrder(registered.toArray()));
+
+        RegistrationUtility delete = template.forRequest(HTTP_METHOD.DELETE, registered.get(0));
+        delete.setOutput(template.getOutput());
+        assertThat(delete.execute(), is(204));
+
+        assertThat(new SiteBackup(template, 4).restore(file), is(0));
+        assertThat("the deleted room is registered again", lines(exportAgain()).size(), is(20));
+    }
+
+    private Path exportAgain() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("again.ndjson.gz");
+        assertThat(new SiteBackup(template, 4).export("id", file), is(0));
+        return file;
+    }
+
+    @Test
+    public void test_export_for_another_owner_is_empty() throws Exception {
+        register();
+        Path file = folder.getRoot().toPath().resolve("none.ndjson.gz");
+        assertThat(new SiteBackup(template, 4).export("someone-else", file), is(0));
+        assertThat(lines(file), is(empty()));
+    }
+
+    /**
+     * A map service that lists two sites, but only answers properly for the first.
+     * @param code the response for the second site
+     * @param body the body for the second site, may be null
+     */
+    private HttpServer brokenService(int code, String body) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(StubMapService.PATH, exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String reply = path.endsWith("/good") ? "{\"_id\":\"good\",\"info\":{\"name\":\"good\"}}"
+                           : path.endsWith("/bad") ? body
+                           : "[{\"_id\":\"good\"},{\"_id\":\"bad\"}]";
+            int status = path.endsWith("/bad") ? code : 200;
+            if(reply == null) {
+                exchange.sendResponseHeaders(status, -1);
+            } else {
+                byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            }
+            exchange.close();
+        });
+        server.start();
+        template.setUrl("http://localhost:" + server.getAddress().getPort() + StubMapService.PATH);
+        return server;
+    }
+
+    @Test
+    public void test_partial_export_does_not_replace_the_last_one() throws Exception {
+        register();
+        Path file = folder.getRoot().toPath().resolve("sites.ndjson.gz");
+        assertThat(new SiteBackup(template, 4).export("id", file), is(0));
+        byte[] good = Files.readAllBytes(file);
+
+        HttpServer server = brokenService(500, "{\"message\":\"broken\"}");
+        try {
+            assertThat(new SiteBackup(template, 4).export("id", file), is(500));
+        } finally {
+            server.stop(0);
+        }
+        assertThat(Files.readAllBytes(file), is(good));
+        List<String> partial = lines(file.resolveSibling("sites.ndjson.gz.partial"));
+        assertThat(partial.size(), is(1));
+        assertThat(partial.get(0), containsString("\"_id\":\"good\""));
+    }
+
+    @Test
+    public void test_site_without_a_body_is_a_failure() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sites.ndjson.gz");
+        HttpServer server = brokenService(200, null);
+        try {
+            assertThat(new SiteBackup(template, 4).export("id", file), is(1));
+        } finally {
+            server.stop(0);
+        }
+        assertThat(Files.exists(file), is(false));
+        assertThat(lines(file.resolveSibling("sites.ndjson.gz.partial")).size(), is(1));
+    }
+
+    @Test
+    public void test_listing_is_retried_when_the_service_is_busy() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sites.ndjson.gz");
+        AtomicInteger listings = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(StubMapService.PATH, exchange -> {
+            boolean listing = exchange.getRequestURI().getPath().equals(StubMapService.PATH);
+            if(listing && listings.incrementAndGet() == 1) {
+                exchange.getResponseHeaders().set("Retry-After", "0");
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                byte[] bytes = (listing ? "[{\"_id\":\"good\"}]" : "{\"_id\":\"good\",\"info\":{\"name\":\"good\"}}")
+                               .getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            template.parseArgs(new String[] {"--retries=2", "--retry-delay=1", "reg.json"}, template);
+            template.setUrl("http://localhost:" + server.getAddress().getPort() + StubMapService.PATH);
+            assertThat(new SiteBackup(template, 4).export("id", file), is(0));
+        } finally {
+            server.stop(0);
+        }
+        assertThat(listings.get(), is(2));
+        assertThat(lines(file).size(), is(1));
+    }
+}
@@ -0,0 +1,68 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+
+public class StubMapServiceTest {
+
+    private StubMapService stub;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+    }
+
+    @After
+    public void stop() {
+        stub.stop();
+    }
+
+    private RegistrationUtility utility(String secret, HTTP_METHOD method, String roomid) throws Exception {
+        RegistrationUtility util = new RegistrationUtility();
+        util.setId("id");
+        util.setSecret(secret);
+        util.setUrl(stub.getUrl());
+        util.setMethod(method);
+        util.setRoomid(roomid);
+        util.setOutput(new PrintStream(new ByteArrayOutputStream()));
+        util.setBody(RegistrationUtility.readFile("reg.json"));
+        return util;
+    }
+
+    @Test
+    public void test_register_update_get_delete() throws Exception {
+        RegistrationUtility post = utility("secret", HTTP_METHOD.POST, null);
+        assertThat(post.execute(), is(201));
+        String roomid = (String) ((Map<?, ?>) Json.parse(post.getResponse())).get("_id");
+        assertThat(roomid, is(notNullValue()));
+
+        assertThat(utility("secret", HTTP_METHOD.PUT, roomid).execute(), is(200));
+
+        RegistrationUtility get = utility("secret", HTTP_METHOD.GET, roomid);
+        assertThat(get.execute(), is(200));
+        Map<?, ?> info = (Map<?, ?>) ((Map<?, ?>) Json.parse(get.getResponse())).get("info");
+        assertThat(info.get("name"), is("roomShortname"));
+
+        assertThat(utility("secret", HTTP_METHOD.DELETE, roomid).execute(), is(204));
+        assertThat(utility("secret", HTTP_METHOD.GET, roomid).execute(), is(404));
+        assertThat(stub.getRejected(), is(0L));
+    }
+
+    @Test
+    public void test_wrong_secret_is_rejected() throws Exception {
+        RegistrationUtility post = utility("not the secret", HTTP_METHOD.POST, null);
+        assertThat(post.execute(), is(403));
+        assertThat(post.getResponse(), containsString("Invalid signature"));
+        assertThat(stub.getRejected(), is(1L));
+    }
+}
@@ -0,0 +1,59 @@
+package org.gameontext.util.reg;
+
+import static org.junit.Assert.fail;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class SyncIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path index(String line) throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, ("{\"file\":\"a.json\",\"roomid\":\"room1\",\"hash\":\"abc\",\"code\":200}\n" + line + "\n").getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private void assertCorrupt(String line) throws Exception {
+        Path path = index(line);
+        try {
+            SyncIndex.load(path);
+            fail("Expected " + line + " to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("Corrupt sync index " + path + " on line 2"));
+        }
+    }
+
+    @Test
+    public void test_entries_are_loaded() throws Exception {
+        SyncIndex index = SyncIndex.load(index("{\"file\":\"b.json\"}"));
+        assertThat(index.get("a.json").roomid, is("room1"));
+        assertThat(index.get("a.json").hash, is("abc"));
+        assertThat(index.get("b.json").roomid, is(nullValue()));
+    }
+
+    @Test
+    public void test_line_that_is_not_an_object_is_corrupt() throws Exception {
+        assertCorrupt("[]");
+        assertCorrupt("\"x\"");
+    }
+
+    @Test
+    public void test_line_without_a_file_is_corrupt() throws Exception {
+        assertCorrupt("{\"roomid\":\"room2\",\"hash\":\"def\"}");
+    }
+
+    @Test
+    public void test_room_id_or_hash_that_is_not_a_string_is_corrupt() throws Exception {
+        assertCorrupt("{\"file\":\"b.json\",\"roomid\":2}");
+        assertCorrupt("{\"file\":\"b.json\",\"hash\":[]}");
+    }
+}
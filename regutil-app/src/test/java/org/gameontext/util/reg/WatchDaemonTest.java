@@ -0,0 +1,128 @@
+package org.gameontext.util.reg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.BooleanSupplier;
+
+public class WatchDaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubMapService stub;
+    private ByteArrayOutputStream output;
+    private RegistrationUtility template;
+    private File rooms;
+    private String json;
+    private Thread daemon;
+
+    @Before
+    public void start() throws Exception {
+        stub = new StubMapService("id", "secret", 0).start();
+        output = new ByteArrayOutputStream();
+        template = new RegistrationUtility();
+        template.setId("id");
+        template.setSecret("secret");
+        template.setUrl(stub.getUrl());
+        template.setOutput(new PrintStream(output, true));
+        rooms = folder.newFolder("rooms");
+        json = RegistrationUtility.readFile("reg.json");
+        write("a.json", "Room A");
+        write("b.json", "Room B");
+
+        WatchDaemon watch = new WatchDaemon(template, 2, rooms, rooms.toPath().resolve(SyncIndex.DEFAULT_NAME), false, 200);
+        daemon = new Thread(() -> {
+            try {
+                watch.run();
+            } catch (Exception e) {
+                template.getOutput().println("Daemon stopped : " + e);
+            }
+        });
+        daemon.start();
+        waitFor(() -> output().contains("Watching " + rooms));
+    }
+
+    @After
+    public void stop() throws Exception {
+        daemon.interrupt();
+        daemon.join(5000);
+        stub.stop();
+    }
+
+    private void write(String file, String fullName) throws Exception {
+        Files.write(new File(rooms, file).toPath(), json.replace("Longer room name", fullName).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized String output() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private int count(String text) {
+        String all = output();
+        int count = 0;
+        for(int i = all.indexOf(text); i >= 0; i = all.indexOf(text, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(!condition.getAsBoolean()) {
+            assertThat("timed out", System.currentTimeMillis() < deadline, is(true));
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void test_change_is_sent_once_after_the_debounce() throws Exception {
+        assertThat(output(), containsString("2 added, 0 changed"));
+        write("a.json", "Room A, redecorated");
+
+        waitFor(() -> count("Synced in") == 1);
+        assertThat(output(), containsString("0 added, 1 changed, 0 removed, 0 unchanged"));
+        //nothing more once the change has gone
+        Thread.sleep(500);
+        assertThat(count("Synced in"), is(1));
+        assertThat(daemon.isAlive(), is(true));
+    }
+
+    @Test
+    public void test_burst_of_writes_is_sent_together() throws Exception {
+        for(int i = 0; i < 10; i++) {
+            write("a.json", "Room A, take " + i);
+            write("b.json", "Room B, take " + i);
+            Thread.sleep(20);
+        }
+
+        waitFor(() -> count("Synced in") >= 1);
+        Thread.sleep(500);
+        assertThat(count("Synced in"), is(1));
+        assertThat(output(), containsString("0 added, 2 changed, 0 removed, 0 unchanged"));
+    }
+
+    @Test
+    public void test_removed_and_invalid_files_do_not_stop_the_watch() throws Exception {
+        Files.delete(new File(rooms, "b.json").toPath());
+        waitFor(() -> output().contains("1 removed but left registered"));
+
+        Files.write(new File(rooms, "c.json").toPath(), "{ not json".getBytes(StandardCharsets.UTF_8));
+        waitFor(() -> output().contains("Invalid registration file"));
+
+        write("a.json", "Room A, redecorated");
+        waitFor(() -> output().contains("0 added, 1 changed"));
+        assertThat(daemon.isAlive(), is(true));
+        assertThat(output(), not(containsString("Daemon stopped")));
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Shared fixtures for the benchmarks.
+ */
+final class BenchSupport {
+
+    private BenchSupport() {
+    }
+
+    /**
+     * Writes a registration file of roughly the given size, padding the
+     * description so that the line structure stays the same as reg.json.
+     */
+    static File registrationFile(int size) throws IOException {
+        StringBuilder description = new StringBuilder("Benchmark room.");
+        while(description.length() < size) {
+            description.append(" Boring default room description.");
+        }
+        String json = String.join(System.getProperty("line.separator")
+                                  ,"{"
+                                  ,"    \"name\":\"benchRoom\","
+                                  ,"    \"fullName\":\"A room for benchmarks\","
+                                  ,"    \"description\":\"" + description + "\","
+                                  ,"    \"doors\":{"
+                                  ,"\t\"n\":\"A Large doorway to the north\","
+                                  ,"\t\"s\":\"A winding path leading off to the south\""
+                                  ,"    },"
+                                  ,"    \"connectionDetails\":{"
+                                  ,"\t\"type\":\"websocket\","
+                                  ,"\t\"target\":\"ws://127.0.0.1:9080/rooms/benchRoom\""
+                                  ,"    }"
+                                  ,"}"
+                                  ,"");
+        File file = File.createTempFile("regutil-bench", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * A connection that accepts a request without sending it anywhere, so
+     * request construction can be measured without any network.
+     */
+    static class NullConnection extends HttpURLConnection {
+
+        NullConnection() throws IOException {
+            super(new URL("http://localhost/map/v1/sites"));
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return RegistrationClient.DISCARD;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
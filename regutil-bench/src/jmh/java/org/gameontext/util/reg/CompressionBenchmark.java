@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Latency of a PUT and a GET against the embedded stub of the map service,
+ * with gzip compression of the request and response bodies on and off. The
+ * body bytes that went over the wire, per request, are printed at the end of
+ * each iteration as the stub counted them.
+ *
+ * The generated descriptions repeat themselves, so they compress better than
+ * most real ones would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private StubMapService server;
+    private RegistrationClient client;
+    private ByteBuffer body;
+    private String roomid;
+    private long requests;
+    private long bodyBytesBefore;
+    private long responseBytesBefore;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new StubMapService("id", "secret", 0).start();
+        //requests run on the benchmark thread, so only the request is measured
+        client = RegistrationClient.builder("id", "secret").url(server.getUrl()).gzip(gzip).retries(0, 0)
+                                   .executor(Runnable::run).build();
+        body = BodyReader.read(BenchSupport.registrationFile(size).getPath(), false);
+        roomid = client.register(body.duplicate()).get().getSiteId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        requests = 0;
+        bodyBytesBefore = server.getBytesReceived();
+        responseBytesBefore = server.getBytesSent();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printBytes() {
+        if(requests > 0) {
+            System.out.println("gzip=" + gzip + " size=" + size + " : "
+                               + (server.getBytesReceived() - bodyBytesBefore) / requests + " body bytes sent, "
+                               + (server.getBytesSent() - responseBytesBefore) / requests + " response bytes received per request");
+        }
+    }
+
+    @Benchmark
+    public int put() throws Exception {
+        requests++;
+        return client.update(roomid, body.duplicate()).get().getCode();
+    }
+
+    @Benchmark
+    public int get() throws Exception {
+        requests++;
+        return client.get(roomid).get().getCode();
+    }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Command line parsing, with and without the registration file being read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseArgsBenchmark {
+
+    private String[] getArgs;
+    private String[] postArgs;
+
+    @Setup
+    public void setup() throws Exception {
+        File file = BenchSupport.registrationFile(512);
+        getArgs = new String[] { "-i=id", "-s=secret", "-u=http://localhost/map/v1/sites", "-m=GET", "-r=123", file.getPath() };
+        postArgs = new String[] { "-i=id", "-s=secret", "-u=http://localhost/map/v1/sites", file.getPath() };
+    }
+
+    @Benchmark
+    public RegistrationUtility parseGet() throws Exception {
+        RegistrationUtility util = new RegistrationUtility();
+        util.parseArgs(getArgs, util);
+        return util;
+    }
+
+    @Benchmark
+    public RegistrationUtility parsePost() throws Exception {
+        RegistrationUtility util = new RegistrationUtility();
+        util.parseArgs(postArgs, util);
+        return util;
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading registration files, as a String and as bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReadFileBenchmark {
+
+    @Param({"1024", "4194304"})
+    public int size;
+
+    private String path;
+
+    @Setup
+    public void setup() throws Exception {
+        path = BenchSupport.registrationFile(size).getPath();
+    }
+
+    @Benchmark
+    public String readFile() throws Exception {
+        return RegistrationUtility.readFile(path);
+    }
+
+    @Benchmark
+    public ByteBuffer readBody() throws Exception {
+        return BodyReader.read(path, false);
+    }
+
+    @Benchmark
+    public ByteBuffer readBodyRaw() throws Exception {
+        return BodyReader.read(path, true);
+    }
+}
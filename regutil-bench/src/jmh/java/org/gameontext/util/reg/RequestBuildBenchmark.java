@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Everything sendToServer(HttpURLConnection) does to build a request: signing,
+ * setting headers and writing the body, without any network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestBuildBenchmark {
+
+    private RegistrationUtility post;
+    private RegistrationUtility get;
+
+    @Setup
+    public void setup() throws Exception {
+        post = new RegistrationUtility();
+        post.setId("id");
+        post.setSecret("secret");
+        post.setOutput(RegistrationClient.DISCARD);
+        post.setMethod(HTTP_METHOD.POST);
+        post.setBody(RegistrationUtility.readFile(BenchSupport.registrationFile(512).getPath()));
+
+        get = post.forRequest(HTTP_METHOD.GET, "123");
+        get.setOutput(RegistrationClient.DISCARD);
+    }
+
+    @Benchmark
+    public HttpURLConnection buildPost() throws Exception {
+        //clear the signature so every request is signed again
+        post.setMethod(HTTP_METHOD.POST);
+        return post.sendToServer(new BenchSupport.NullConnection());
+    }
+
+    @Benchmark
+    public HttpURLConnection buildGet() throws Exception {
+        return get.sendToServer(new BenchSupport.NullConnection());
+    }
+}
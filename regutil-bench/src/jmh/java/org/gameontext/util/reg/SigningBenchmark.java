@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+
+import org.gameontext.signed.SignedRequestHmac;
+import org.gameontext.signed.SignedRequestMap;
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * HMAC signing with the signed library, as sendToServer used to, and with RequestSigner.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SigningBenchmark {
+
+    private String body;
+    private ByteBuffer bodyBytes;
+    private RequestSigner signer;
+
+    @Setup
+    public void setup() throws Exception {
+        body = RegistrationUtility.readFile(BenchSupport.registrationFile(512).getPath());
+        bodyBytes = ByteBuffer.wrap(body.getBytes("UTF-8"));
+        signer = new RequestSigner("id", "secret");
+    }
+
+    @Benchmark
+    public SignedRequestMap signedRequestHmac() throws Exception {
+        SignedRequestMap headers = new SignedRequestMap.MVSO_StringMap(new MultivaluedHashMap<>());
+        SignedRequestHmac clientHmac = new SignedRequestHmac("id", "secret", HTTP_METHOD.PUT.name(), "/map/v1/sites/123");
+        clientHmac.generateBodyHash(headers, body.getBytes("UTF-8"));
+        clientHmac.signRequest(headers);
+        return headers;
+    }
+
+    @Benchmark
+    public RequestSigner.Signature requestSigner() {
+        return signer.sign(HTTP_METHOD.PUT, "/map/v1/sites/123", bodyBytes);
+    }
+}
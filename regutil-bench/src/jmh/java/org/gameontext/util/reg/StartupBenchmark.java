@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wall clock time for a complete run of the CLI, from launching a JVM to it
+ * exiting, for each method. The jar and its class data sharing archive come
+ * from the regutil.jar and regutil.jsa system properties, set by the build.
+ *
+ * Each launch is a real request to the embedded stub. DELETE only removes the
+ * room the first time, after which the launches get a 404, which is just as
+ * much work for the client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StartupBenchmark {
+
+    @Param({"GET", "POST", "PUT", "DELETE"})
+    public String method;
+
+    @Param({"none", "appcds"})
+    public String archive;
+
+    private StubMapService server;
+    private ProcessBuilder launch;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String jar = System.getProperty("regutil.jar");
+        String jsa = System.getProperty("regutil.jsa");
+        if(jar == null || !new File(jar).isFile()) {
+            throw new IllegalStateException("Set regutil.jar to the path of the application jar");
+        }
+        server = new StubMapService("id", "secret", 0).start();
+        File file = BenchSupport.registrationFile(512);
+
+        //something for GET, PUT and DELETE to find
+        RegistrationUtility util = new RegistrationUtility();
+        util.parseArgs(new String[] {"-i=id", "-s=secret", "-u=" + server.getUrl(), file.getPath()}, util);
+        util.setOutput(RegistrationClient.DISCARD);
+        util.execute();
+        String roomid = (String) ((Map<?, ?>) Json.parse(util.getResponse())).get("_id");
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if(archive.equals("appcds")) {
+            if(jsa == null || !new File(jsa).isFile()) {
+                throw new IllegalStateException("No class data sharing archive at " + jsa + ", build it with gradlew :regutil-app:cdsArchive");
+            }
+            command.add("-XX:SharedArchiveFile=" + jsa);
+        }
+        command.add("-cp");
+        command.add(jar);
+        command.add(RegistrationUtility.class.getName());
+        command.add("-i=id");
+        command.add("-s=secret");
+        command.add("-u=" + server.getUrl());
+        command.add("-m=" + HTTP_METHOD.valueOf(method));
+        command.add("-r=" + roomid);
+        command.add(file.getPath());
+        launch = new ProcessBuilder(command).redirectErrorStream(true)
+                                            .redirectOutput(ProcessBuilder.Redirect.appendTo(File.createTempFile("regutil-startup", ".log")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public int launch() throws Exception {
+        return launch.start().waitFor();
+    }
+}
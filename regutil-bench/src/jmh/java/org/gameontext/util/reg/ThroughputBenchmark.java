@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.util.reg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.util.reg.RegistrationUtility.HTTP_METHOD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Complete requests against the embedded stub of the map service, from
+ * several threads at once as bulk registration does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class ThroughputBenchmark {
+
+    @Param({"pooled", "urlconnection"})
+    public String transport;
+
+    private StubMapService server;
+    private RegistrationUtility template;
+    private ByteBuffer body;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new StubMapService("id", "secret", 0).start();
+        template = new RegistrationUtility();
+        template.setId("id");
+        template.setSecret("secret");
+        template.setUrl(server.getUrl());
+        template.setTransport(Transport.forName(transport, false));
+        body = BodyReader.read(BenchSupport.registrationFile(512).getPath(), false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public int post() throws Exception {
+        return send(HTTP_METHOD.POST, null);
+    }
+
+    @Benchmark
+    public int put() throws Exception {
+        return send(HTTP_METHOD.PUT, "123");
+    }
+
+    @Benchmark
+    public int get() throws Exception {
+        return send(HTTP_METHOD.GET, "123");
+    }
+
+    private int send(HTTP_METHOD method, String roomid) throws Exception {
+        RegistrationUtility item = template.forRequest(method, roomid);
+        item.setOutput(RegistrationClient.DISCARD);
+        item.setBodyBytes(body);
+        return item.execute();
+    }
+}